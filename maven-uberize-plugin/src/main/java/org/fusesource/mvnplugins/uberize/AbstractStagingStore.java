@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Base class for the staging stores.  It keeps an {@link OutputDirectory} per
+ * work directory to create the files which have to be written to disk.
+ */
+public abstract class AbstractStagingStore implements StagingStore {
+
+    private final HashMap<File, OutputDirectory> directories = new HashMap<File, OutputDirectory>();
+
+    OutputDirectory getOutputDirectory(File basedir) throws IOException {
+        synchronized (directories) {
+            OutputDirectory directory = directories.get(basedir);
+            if (directory == null) {
+                directory = new OutputDirectory(basedir);
+                directories.put(basedir, directory);
+            }
+            return directory;
+        }
+    }
+
+    public File prepare(File basedir, String path) throws IOException {
+        getOutputDirectory(basedir).prepareFile(path);
+        return new File(basedir, path);
+    }
+
+    public void close() {
+        synchronized (directories) {
+            directories.clear();
+        }
+    }
+
+}
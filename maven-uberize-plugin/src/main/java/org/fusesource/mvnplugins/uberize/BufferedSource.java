@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A source file generated by a transformer.  The content is kept in memory so
+ * that the uber jar writer can consume it without a round trip to disk.  It only
+ * gets written to its path in the work directory once it grows past the spill
+ * limit or {@link #extract()} is called.  Until then its content can only be
+ * read via {@link #openStream()}.
+ */
+public class BufferedSource extends File implements LazySource {
+
+    public static final int SPILL_LIMIT = 1024 * 1024;
+
+    private final StagingStore store;
+    private final File basedir;
+    private final String path;
+    private byte[] data = new byte[0];
+    private int size;
+    private boolean spilled;
+
+    public BufferedSource(File basedir, String path) {
+        this(null, basedir, path);
+    }
+
+    /**
+     * @param store the store which prepares the file the source spills or gets extracted to
+     */
+    public BufferedSource(StagingStore store, File basedir, String path) {
+        super(basedir, path);
+        this.store = store;
+        this.basedir = basedir;
+        this.path = path;
+    }
+
+    private File prepareFile() throws IOException {
+        if (store == null) {
+            return DefaultUberizer.prepareFile(basedir, path);
+        }
+        return store.prepare(basedir, path);
+    }
+
+    /**
+     * Opens a stream which replaces the content of the source.
+     */
+    public OutputStream openOutputStream() {
+        synchronized (this) {
+            data = new byte[1024];
+            size = 0;
+            spilled = false;
+        }
+        return new OutputStream() {
+            private OutputStream file;
+
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (BufferedSource.this) {
+                    if (file == null && size + len > SPILL_LIMIT) {
+                        file = new FileOutputStream(prepareFile());
+                        file.write(data, 0, size);
+                        data = null;
+                        size = 0;
+                        spilled = true;
+                    }
+                    if (file != null) {
+                        file.write(b, off, len);
+                        return;
+                    }
+                    if (size + len > data.length) {
+                        byte[] grown = new byte[Math.max(data.length * 2, size + len)];
+                        System.arraycopy(data, 0, grown, 0, size);
+                        data = grown;
+                    }
+                    System.arraycopy(b, off, data, size, len);
+                    size += len;
+                }
+            }
+
+            public void close() throws IOException {
+                if (file != null) {
+                    file.close();
+                }
+            }
+        };
+    }
+
+    synchronized public InputStream openStream() throws IOException {
+        if (spilled) {
+            return new FileInputStream(this);
+        }
+        return new ByteArrayInputStream(data, 0, size);
+    }
+
+    /**
+     * @return true if the content has been written to the work directory.
+     */
+    synchronized public boolean isExtracted() {
+        return spilled;
+    }
+
+    /**
+     * Writes the content to the work directory if it's still held in memory.
+     *
+     * @return this file
+     * @throws IOException
+     */
+    synchronized public File extract() throws IOException {
+        if (!spilled) {
+            FileOutputStream os = new FileOutputStream(prepareFile());
+            try {
+                os.write(data, 0, size);
+            } finally {
+                IOUtil.close(os);
+            }
+            data = null;
+            size = 0;
+            spilled = true;
+        }
+        return this;
+    }
+
+    synchronized public long length() {
+        if (spilled) {
+            return super.length();
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how each uber jar entry gets compressed.  The first matching
+ * rule wins, entries not matching any rule use the default level.
+ *
+ * Entries of the source jars are only copied as is when they are already
+ * compressed the way the policy asks for, otherwise they get compressed again.
+ */
+public class CompressionPolicy {
+
+    /**
+     * The level used for the entries which are stored uncompressed.
+     */
+    public static final int STORED = -2;
+
+    private final ArrayList<CompressionRule> rules = new ArrayList<CompressionRule>();
+    private int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * @return a policy that stores the file types which are already compressed
+     * and deflates everything else.
+     */
+    public static CompressionPolicy createDefault() {
+        CompressionPolicy rc = new CompressionPolicy();
+        rc.add(new CompressionRule(new LinkedHashSet<String>(Arrays.asList(new String[]{
+                "**/*.jar", "**/*.zip", "**/*.tgz", "**/*.gz", "**/*.bz2",
+                "**/*.jpg", "**/*.jpeg", "**/*.gif", "**/*.png"
+        })), true, Deflater.DEFAULT_COMPRESSION));
+        return rc;
+    }
+
+    /**
+     * @return a policy for fast development builds, it stores every entry.
+     */
+    public static CompressionPolicy createFast() {
+        CompressionPolicy rc = new CompressionPolicy();
+        rc.setDefaultLevel(STORED);
+        return rc;
+    }
+
+    /**
+     * Adds a rule which takes precedence over the rules added after it.
+     */
+    public CompressionPolicy add(CompressionRule rule) {
+        if (!rule.isStored()) {
+            checkLevel(rule.getLevel());
+        }
+        rules.add(rule);
+        return this;
+    }
+
+    /**
+     * Adds rules which take precedence over all the rules already in the policy.
+     */
+    public CompressionPolicy addFirst(List<CompressionRule> rules) {
+        for (CompressionRule rule : rules) {
+            if (!rule.isStored()) {
+                checkLevel(rule.getLevel());
+            }
+        }
+        this.rules.addAll(0, rules);
+        return this;
+    }
+
+    public int getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    public void setDefaultLevel(int defaultLevel) {
+        if (defaultLevel != STORED) {
+            checkLevel(defaultLevel);
+        }
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * @return the deflate level to use for an entry or {@link #STORED}
+     */
+    public int getLevel(String path) {
+        for (CompressionRule rule : rules) {
+            if (rule.matches(path)) {
+                return rule.isStored() ? STORED : rule.getLevel();
+            }
+        }
+        return defaultLevel;
+    }
+
+    private static void checkLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+    }
+
+}
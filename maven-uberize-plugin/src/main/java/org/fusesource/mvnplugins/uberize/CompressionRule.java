@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Selects how the uber jar entries matching a set of path patterns
+ * get compressed.
+ */
+public class CompressionRule {
+
+    private Set<String> includes;
+    private Set<String> excludes;
+    private boolean stored;
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+    // Compiled on the first match, guarded by this rule's lock since the
+    // main and sources uber jars can be built concurrently.
+    private transient PathMatcher includeMatcher;
+    private transient PathMatcher excludeMatcher;
+
+    public CompressionRule() {
+    }
+
+    public CompressionRule(Set<String> includes, boolean stored, int level) {
+        this.includes = includes;
+        this.stored = stored;
+        this.level = level;
+    }
+
+    public Set<String> getIncludes() {
+        return includes;
+    }
+
+    public synchronized void setIncludes(Set<String> includes) {
+        this.includes = includes;
+        this.includeMatcher = null;
+    }
+
+    public Set<String> getExcludes() {
+        return excludes;
+    }
+
+    public synchronized void setExcludes(Set<String> excludes) {
+        this.excludes = excludes;
+        this.excludeMatcher = null;
+    }
+
+    /**
+     * @return true if the matching entries should be stored without compressing them.
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    public void setStored(boolean stored) {
+        this.stored = stored;
+    }
+
+    /**
+     * @return the deflate level (0-9, or -1 for the default level) of the matching entries.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean matches(String path) {
+        PathMatcher include = getIncludeMatcher();
+        if (include != null && !include.matches(path)) {
+            return false;
+        }
+        PathMatcher exclude = getExcludeMatcher();
+        if (exclude != null && exclude.matches(path)) {
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized PathMatcher getIncludeMatcher() {
+        if (includes == null || includes.isEmpty()) {
+            return null;
+        }
+        if (includeMatcher == null) {
+            includeMatcher = new PathMatcher(includes);
+        }
+        return includeMatcher;
+    }
+
+    private synchronized PathMatcher getExcludeMatcher() {
+        if (excludes == null || excludes.isEmpty()) {
+            return null;
+        }
+        if (excludeMatcher == null) {
+            excludeMatcher = new PathMatcher(excludes);
+        }
+        return excludeMatcher;
+    }
+
+}
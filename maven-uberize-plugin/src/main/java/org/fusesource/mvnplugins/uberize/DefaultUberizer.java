@@ -29,7 +29,10 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -38,10 +41,17 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
 
 /**
  * @author Jason van Zyl
@@ -49,94 +59,520 @@ import java.util.jar.JarOutputStream;
  * @plexus.component
  */
 public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
+
+    // The state of a run, each run uses a new session instance.
     private final HashMap<String, String> classRelocations = new HashMap<String, String>();
     private final HashMap<File, File> extractionMapping = new HashMap<File, File>();
-    private Transformer currentTransformer;
+    private final ConcurrentHashMap<File, Long> checksums = new ConcurrentHashMap<File, Long>();
+    private final HashMap<File, JarEntryFile> origins = new HashMap<File, JarEntryFile>();
+    private IncrementalState state;
+    private UberizeOptions options = new UberizeOptions();
+    private StagingStore stagingStore = new DirectoryStagingStore();
 
 
     public void uberize(File targetDir, Set sourceJars, File uberJar, List<Filter> filters, List<Transformer> transformers)
             throws IOException {
-        classRelocations.clear();
-        extractionMapping.clear();
-        currentTransformer=null;
+        uberize(targetDir, sourceJars, uberJar, filters, transformers, new UberizeOptions());
+    }
+
+    /**
+     * The plexus component is a singleton, so each run gets its own session
+     * instance to hold the state of the run.  This allows concurrent runs.
+     */
+    public void uberize(File targetDir, Set sourceJars, File uberJar, List<Filter> filters, List<Transformer> transformers, UberizeOptions options)
+            throws IOException {
+        DefaultUberizer session = new DefaultUberizer();
+        session.enableLogging(getLogger());
+        session.run(targetDir, sourceJars, uberJar, filters, transformers, options);
+    }
+
+    private void run(File targetDir, Set sourceJars, File uberJar, List<Filter> filters, List<Transformer> transformers, UberizeOptions options)
+            throws IOException {
+        this.options = options;
 
         targetDir = targetDir.getCanonicalFile();
-        targetDir.mkdirs();
-        FileUtils.cleanDirectory(targetDir);
+        DirectoryCleaner cleaner = null;
+        if( options.isBackgroundCleanup() && !options.isIncremental() ) {
+            cleaner = DirectoryCleaner.start(targetDir);
+        }
+        try {
+            targetDir.mkdirs();
+            state = new IncrementalState(targetDir, options.isIncremental());
+            build(targetDir, sourceJars, uberJar, filters, transformers);
+        } finally {
+            if( cleaner != null ) {
+                // Don't leave the deletion running once the run returns.
+                try {
+                    cleaner.await();
+                } catch (IOException e) {
+                    getLogger().warn("Could not delete the previous work directory: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void build(File targetDir, Set sourceJars, File uberJar, List<Filter> filters, List<Transformer> transformers)
+            throws IOException {
         final String jarMappingTxt = new File(targetDir, "jar-mapping.txt").getPath();
         final String transformMappingTxt = new File(targetDir, "transformation-mapping.txt").getPath();
+        FileUtils.fileDelete(jarMappingTxt);
+        FileUtils.fileDelete(transformMappingTxt);
+        state.keep(new File(jarMappingTxt));
+        state.keep(new File(transformMappingTxt));
 
         // A 'jar entry path' => UberEntry map, points to all the data
         // that is in the source sourceJars.
-        TreeMap<String, UberEntry> tree = new TreeMap<String, UberEntry>();
-
+        TreeMap<String, UberEntry> tree = new UberEntryTree();
 
-        // Extract each jar to a seperate directory and build up the tree
-        // tree to point to all the extracted files.
-        getLogger().info("Extracting jars...");
-        for (Iterator i = sourceJars.iterator(); i.hasNext();) {
-            File jar = (File) i.next();
+        ArrayList<SourceJar> openJars = new ArrayList<SourceJar>();
+        SourceIndex index = null;
+        stagingStore = createStagingStore(targetDir, options.getStagingStore());
+        try {
 
-            int counter = 1;
-            String id = jar.getName();
-            File workDir = new File(targetDir, id);
-            while (workDir.exists()) {
-                id = jar.getName() + "." + counter++;
-                workDir = new File(targetDir, id);
+            // Index each jar and build up the tree to point to all the jar entries.
+            // Unless lazy extraction is enabled or the files are not staged in the
+            // work directory, each jar also gets extracted to a seperate directory.
+            final boolean extract = !options.isLazyExtraction() && stagingStore instanceof DirectoryStagingStore;
+            getLogger().info(extract ? "Extracting jars..." : "Indexing jars...");
+            ArrayList<Callable<List<JarEntryFile>>> tasks = new ArrayList<Callable<List<JarEntryFile>>>();
+            for (Iterator i = sourceJars.iterator(); i.hasNext();) {
+                File jar = (File) i.next();
+
+                int counter = 1;
+                String id = jar.getName();
+                File workDir = new File(targetDir, id);
+                while (extractionMapping.containsKey(workDir)) {
+                    id = jar.getName() + "." + counter++;
+                    workDir = new File(targetDir, id);
+                }
+                extractionMapping.put(workDir, jar);
+                FileUtils.fileAppend(jarMappingTxt, id + "=" + jar.getPath() + "\n");
+
+                final List<Filter> jarFilters = getFilters(jar, filters);
+                final SourceJar sourceJar = new SourceJar(jar, workDir);
+                openJars.add(sourceJar);
+
+                // On incremental runs, the entries of unchanged jars are not extracted again.
+                String fingerprint = jar.getCanonicalPath() + "|" + jar.length() + "|" + jar.lastModified()
+                        + "|" + IncrementalState.fingerprint(jarFilters);
+                sourceJar.setUnchanged(state.checkJar(id, workDir, fingerprint));
+                final boolean extracted = state.isJarExtracted(id, fingerprint);
+                state.addJar(id, fingerprint, extract || extracted);
+
+                tasks.add(new Callable<List<JarEntryFile>>() {
+                    public List<JarEntryFile> call() throws IOException {
+                        return loadJar(sourceJar, jarFilters, extract, extracted);
+                    }
+                });
             }
-            extractionMapping.put(workDir, jar);
-            FileUtils.fileAppend(jarMappingTxt, id + "=" + jar.getPath() + "\n");
 
-            List jarFilters = getFilters(jar, filters);
-            JarFile jarFile = new JarFile(jar);
+            // The jars get loaded concurrently, but they are added to the tree in
+            // the source jar order so that the first source still wins.
+            ExecutorService executor = createExecutor(options.getExtractThreads());
             try {
-                for (Enumeration j = jarFile.entries(); j.hasMoreElements();) {
-                    JarEntry entry = (JarEntry) j.nextElement();
-                    String name = entry.getName();
-
-                    // Skip over stuff we are filtering out
-                    if (entry.isDirectory() || isFiltered(jarFilters, name)) {
-                        continue;
+                // Past the spill threshold, the sources are held in a disk backed index.
+                int sourceCount = 0;
+                int threshold = options.getSourceSpillThreshold();
+                List<Future<List<JarEntryFile>>> futures = submit(executor, tasks);
+                for (int i = 0; i < futures.size(); i++) {
+                    // Drop the loaded entries as they get merged so that spilled
+                    // sources do not stay reachable until every jar is merged.
+                    List<JarEntryFile> sources = get(futures.get(i));
+                    futures.set(i, null);
+                    for (int j = 0; j < sources.size(); j++) {
+                        JarEntryFile source = sources.set(j, null);
+                        UberEntry node = getNode(tree, source.getEntryName());
+                        if( index == null && threshold >= 0 && sourceCount >= threshold ) {
+                            getLogger().info("Moving the jar entry details to a disk backed index...");
+                            index = new SourceIndex(targetDir);
+                            for (File file : index.getFiles()) {
+                                state.keep(file);
+                            }
+                        }
+                        if( index != null ) {
+                            node.addSource(index.add(source));
+                        } else {
+                            node.getSourceList().add(source);
+                        }
+                        sourceCount++;
                     }
-
-                    // Extract the file..
-                    InputStream is = jarFile.getInputStream(entry);
-                    File extracted = writeFile(workDir, name, is);
-                    getNode(tree, name).getSources().add(extracted);
+                }
+                if( index != null ) {
+                    index.seal();
                 }
             } finally {
-                jarFile.close();
+                executor.shutdownNow();
+            }
+
+            transform(targetDir, transformMappingTxt, tree, transformers, options);
+            write(uberJar, tree, options);
+            state.finish();
+
+        } finally {
+            stagingStore.close();
+            if( index != null ) {
+                index.close();
+            }
+            for (SourceJar sourceJar : openJars) {
+                sourceJar.close();
+            }
+        }
+    }
+
+    private StagingStore createStagingStore(File targetDir, String type) throws IOException {
+        if( type == null || StagingStore.DIRECTORY.equals(type) ) {
+            return new DirectoryStagingStore();
+        }
+        if( StagingStore.MEMORY.equals(type) ) {
+            return new MemoryStagingStore();
+        }
+        if( StagingStore.PACK.equals(type) ) {
+            PackStagingStore pack = new PackStagingStore(targetDir);
+            state.keep(pack.getFile());
+            return pack;
+        }
+        throw new IOException("Unknown staging store: " + type);
+    }
+
+    private List<JarEntryFile> loadJar(SourceJar sourceJar, List<Filter> jarFilters, boolean extract, boolean extracted) throws IOException {
+        ArrayList<JarEntryFile> rc = new ArrayList<JarEntryFile>();
+        JarFile jarFile = sourceJar.getJarFile();
+        for (Enumeration j = jarFile.entries(); j.hasMoreElements();) {
+            JarEntry entry = (JarEntry) j.nextElement();
+            String name = entry.getName();
+
+            // Skip over stuff we are filtering out
+            if (entry.isDirectory() || isFiltered(jarFilters, name)) {
+                continue;
+            }
+
+            JarEntryFile source = new JarEntryFile(sourceJar, entry);
+            if (extracted) {
+                source.markExtracted();
+            } else if (extract) {
+                source.extract();
             }
+            rc.add(source);
         }
+        return rc;
+    }
+
+    /**
+     * Creates the executor used to run concurrent tasks.  A thread count
+     * less than 1 will use one thread per available processor.
+     */
+    public static ExecutorService createExecutor(int threads) {
+        return Executors.newFixedThreadPool(threadCount(threads));
+    }
 
+    public static int threadCount(int threads) {
+        if (threads < 1) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
+    }
+
+    public static <T> List<Future<T>> submit(ExecutorService executor, List<? extends Callable<T>> tasks) {
+        ArrayList<Future<T>> rc = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            rc.add(executor.submit(task));
+        }
+        return rc;
+    }
+
+    /**
+     * Waits for a task to complete, rethrowing its failure as an IOException.
+     */
+    public static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException().initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw (IOException) new IOException(cause.toString()).initCause(cause);
+        }
+    }
+
+    private void transform(File targetDir, String transformMappingTxt, TreeMap<String, UberEntry> tree, List<Transformer> transformers, UberizeOptions options) throws IOException {
         // The transformers can now inspect the tree modify it's organization
         // to aid in trouble shooting, the transformer should not modify the extracted
         // files.  It should instead generate new files in the provided work directory.
+        boolean extracted = !options.isLazyExtraction();
+        // The paths changed since the sources were last extracted, null if any path may have.
+        Set<String> pending = null;
         int transformerCounter = 0;
-        for (Transformer transformer : transformers) {
-            getLogger().info("Applying transformer: "+transformer.getClass().getName());
-            currentTransformer = transformer;
-            final String id = "transformer-" + (transformerCounter++);
-            File xformWorkDir = new File(targetDir, id);
-            FileUtils.fileAppend(transformMappingTxt, id + "=" + transformer.getClass().getName() + "\n");
-            transformer.process(this, xformWorkDir, tree);
+        for (int start = 0; start < transformers.size();) {
+            // Consecutive entry transformers get applied in a single walk over the tree.  The
+            // group ends before a transformer which may need the sources extracted.
+            int end = start + 1;
+            if( transformers.get(start) instanceof EntryTransformer ) {
+                while( end < transformers.size() && transformers.get(end) instanceof EntryTransformer
+                        && transformers.get(end) instanceof LazySourceTransformer ) {
+                    end++;
+                }
+            }
+            List<Transformer> group = transformers.subList(start, end);
+            ArrayList<File> workDirs = new ArrayList<File>(group.size());
+            for (Transformer transformer : group) {
+                getLogger().info("Applying transformer: "+transformer.getClass().getName());
+                if( !(transformer instanceof LazySourceTransformer) ) {
+                    // This transformer may access the source files directly..
+                    extractSources(tree, pending, !extracted);
+                    extracted = true;
+                    pending = new HashSet<String>();
+                }
+                final String id = "transformer-" + (transformerCounter++);
+                File xformWorkDir = new File(targetDir, id);
+                state.checkTransformer(id, xformWorkDir, IncrementalState.fingerprint(transformer));
+                FileUtils.fileAppend(transformMappingTxt, id + "=" + transformer.getClass().getName() + "\n");
+                workDirs.add(xformWorkDir);
+            }
+            if( group.get(0) instanceof EntryTransformer ) {
+                transformEntries(tree, group, workDirs, options, pending);
+            } else {
+                group.get(0).process(this, workDirs.get(0), tree);
+                // It could have changed any of the entries.
+                pending = null;
+            }
+            start = end;
         }
 
         // Cleanup any remaining overlapping entries. First source wins.
         boolean ok = true;
         for (UberEntry entry : new ArrayList<UberEntry>(tree.values())) {
-            if( entry.getSources().isEmpty() ) {
+            if( entry.getSourceList().isEmpty() ) {
                 // We can dump empty entries..
                 tree.remove(entry.getPath());
             } else {
                 pickOneSource(tree, entry);
             }
         }
+    }
+
+    /**
+     * Hands each entry to the entry transformers interested in it, in the order the
+     * transformers are configured.  Since an entry transformer only sees the entry it
+     * transforms, this has the same result as applying the transformers one after
+     * the other.  For the same reason, transformers which are not interested in any of
+     * the same entries can be applied concurrently.
+     *
+     * @param changed if not null, gets the paths of the changed entries
+     */
+    private void transformEntries(TreeMap<String, UberEntry> tree, List<Transformer> group, List<File> workDirs, UberizeOptions options, Set<String> changed) throws IOException {
+        TreeMap<String, BitSet> interested = new TreeMap<String, BitSet>();
+        BitSet all = new BitSet();
+        for (int i = 0; i < group.size(); i++) {
+            Collection interests = ((EntryTransformer) group.get(i)).getInterests();
+            if( interests == null || interests.isEmpty() ) {
+                all.set(i);
+                continue;
+            }
+            for (Iterator iterator = interests.iterator(); iterator.hasNext();) {
+                String pattern = (String) iterator.next();
+                for (UberEntry entry : UberEntryTree.matching(tree, pattern, true)) {
+                    BitSet bits = interested.get(entry.getPath());
+                    if( bits == null ) {
+                        bits = new BitSet();
+                        interested.put(entry.getPath(), bits);
+                    }
+                    bits.set(i);
+                }
+            }
+        }
+
+        // A transformer interested in all the entries overlaps with all the others.
+        int threads = threadCount(options.getTransformThreads());
+        if( all.isEmpty() && threads > 1 ) {
+            Collection<List<String>> independent = independentPaths(interested, group.size());
+            if( independent.size() > 1 ) {
+                ArrayList<EntryTask> tasks = new ArrayList<EntryTask>(independent.size());
+                for (List<String> paths : independent) {
+                    tasks.add(new EntryTask(tree, interested, paths, group, workDirs));
+                }
+                ExecutorService executor = createExecutor(Math.min(threads, tasks.size()));
+                try {
+                    // The tree is only updated once all the tasks are done reading it.
+                    ArrayList<LinkedHashMap<String, UberEntry>> results = new ArrayList<LinkedHashMap<String, UberEntry>>(tasks.size());
+                    for (Future<LinkedHashMap<String, UberEntry>> future : submit(executor, tasks)) {
+                        results.add(get(future));
+                    }
+                    for (LinkedHashMap<String, UberEntry> result : results) {
+                        for (Entry<String, UberEntry> update : result.entrySet()) {
+                            updateEntry(tree, update.getKey(), update.getValue());
+                            if( changed != null ) {
+                                changed.add(update.getKey());
+                            }
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+                return;
+            }
+        }
+
+        Collection<String> paths = all.isEmpty() ? interested.keySet() : new ArrayList<String>(tree.keySet());
+        for (String path : paths) {
+            BitSet bits = interested.get(path);
+            if( bits == null ) {
+                bits = all;
+            } else if( !all.isEmpty() ) {
+                bits.or(all);
+            }
+            UberEntry entry = tree.get(path);
+            UberEntry modEntry = transformEntry(path, entry, bits, group, workDirs);
+            if( modEntry != entry ) {
+                updateEntry(tree, path, modEntry);
+                if( changed != null ) {
+                    changed.add(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the entry through the transformers selected by the bits.
+     *
+     * @return the transformed entry, or null if it got removed.
+     */
+    private UberEntry transformEntry(String path, UberEntry entry, BitSet bits, List<Transformer> group, List<File> workDirs) throws IOException {
+        for (int i = bits.nextSetBit(0); i >= 0 && entry != null; i = bits.nextSetBit(i + 1)) {
+            EntryTransformer transformer = (EntryTransformer) group.get(i);
+            if( entry.getSourceList().isEmpty() || !transformer.matches(path) ) {
+                continue;
+            }
+            entry = transformer.transform(this, workDirs.get(i), entry);
+        }
+        return entry;
+    }
+
+    private static void updateEntry(TreeMap<String, UberEntry> tree, String path, UberEntry entry) {
+        if( entry != null ) {
+            tree.put(path, entry);
+        } else {
+            tree.remove(path);
+        }
+    }
+
+    /**
+     * Groups the interested entries so that the transformers interested in the entries
+     * of one group are not interested in any of the entries of the other groups.
+     */
+    private static Collection<List<String>> independentPaths(TreeMap<String, BitSet> interested, int transformers) {
+        // Union the transformers interested in the same entries.
+        int parents[] = new int[transformers];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = i;
+        }
+        for (BitSet bits : interested.values()) {
+            int first = root(parents, bits.nextSetBit(0));
+            for (int i = bits.nextSetBit(first + 1); i >= 0; i = bits.nextSetBit(i + 1)) {
+                parents[root(parents, i)] = first;
+            }
+        }
+
+        LinkedHashMap<Integer, List<String>> rc = new LinkedHashMap<Integer, List<String>>();
+        for (Entry<String, BitSet> entry : interested.entrySet()) {
+            Integer root = root(parents, entry.getValue().nextSetBit(0));
+            List<String> paths = rc.get(root);
+            if( paths == null ) {
+                paths = new ArrayList<String>();
+                rc.put(root, paths);
+            }
+            paths.add(entry.getKey());
+        }
+        return rc.values();
+    }
+
+    private static int root(int parents[], int i) {
+        while( parents[i] != i ) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Transforms a group of entries which no other task is interested in.  The
+     * tree is only read, the changed entries are returned.
+     */
+    private class EntryTask implements Callable<LinkedHashMap<String, UberEntry>> {
+        private final TreeMap<String, UberEntry> tree;
+        private final TreeMap<String, BitSet> interested;
+        private final List<String> paths;
+        private final List<Transformer> group;
+        private final List<File> workDirs;
+
+        EntryTask(TreeMap<String, UberEntry> tree, TreeMap<String, BitSet> interested, List<String> paths, List<Transformer> group, List<File> workDirs) {
+            this.tree = tree;
+            this.interested = interested;
+            this.paths = paths;
+            this.group = group;
+            this.workDirs = workDirs;
+        }
+
+        public LinkedHashMap<String, UberEntry> call() throws IOException {
+            LinkedHashMap<String, UberEntry> rc = new LinkedHashMap<String, UberEntry>();
+            for (String path : paths) {
+                UberEntry entry = tree.get(path);
+                UberEntry modEntry = transformEntry(path, entry, interested.get(path), group, workDirs);
+                if( modEntry != entry ) {
+                    rc.put(path, modEntry);
+                }
+            }
+            return rc;
+        }
+    }
+
+    /**
+     * @param paths the entries to extract, null for all of them
+     */
+    private void extractSources(TreeMap<String, UberEntry> tree, Set<String> paths, boolean jars) throws IOException {
+        if( jars ) {
+            getLogger().info("Extracting jars...");
+        }
+        Collection<UberEntry> entries = tree.values();
+        if( paths != null ) {
+            entries = new ArrayList<UberEntry>(paths.size());
+            for (String path : paths) {
+                UberEntry entry = tree.get(path);
+                if( entry != null ) {
+                    entries.add(entry);
+                }
+            }
+        }
+        for (UberEntry entry : entries) {
+            for (File source : entry.getSourceList()) {
+                if( source instanceof LazySource && (jars || !(source instanceof JarEntryFile)) ) {
+                    ((LazySource) source).extract();
+                }
+            }
+        }
+    }
+
+    private void write(File uberJar, TreeMap<String, UberEntry> tree, UberizeOptions options) throws IOException {
 
         // Generate the uber jar using the transformed tree
         getLogger().info("Uber jarring...");
         uberJar.getParentFile().mkdirs();
-        JarOutputStream jos = new JarOutputStream(new FileOutputStream(uberJar));
+
+        // Entries get deflated concurrently but are written in tree order, so at
+        // most a few entries per thread are held in memory waiting for their turn.
+        int threads = threadCount(options.getCompressThreads());
+        ExecutorService executor = threads > 1 ? createExecutor(threads) : null;
+        UberJarWriter writer = new UberJarWriter(uberJar, executor, threads * 4);
+        CompressionPolicy policy = options.getCompressionPolicy();
         HashSet<String> uberDirectories = new HashSet<String>();
         try {
             for (Entry<String, UberEntry> entry : tree.entrySet()) {
@@ -147,34 +583,36 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
                 getParentDirs(path, dirs);
                 for (String dir : dirs) {
                     if (uberDirectories.add(dir)) {
-                        jos.putNextEntry(new JarEntry(dir));
+                        writer.putDirectory(dir);
                     }
                 }
 
-                // Write the jar enry from the node's file
-                jos.putNextEntry(new JarEntry(path));
-                File file = entry.getValue().getSources().get(0);
-                FileInputStream is = new FileInputStream(file);
-                try {
-                    IOUtil.copy(is, jos);
-                } finally {
-                    IOUtil.close(is);
-                }
+                // Write the jar enry from the node's file.  Entries no transformer
+                // touched are copied without recompressing them.
+                writer.putEntry(path, entry.getValue().getSourceList().get(0), policy.getLevel(path));
 
             }
+            writer.finish();
         } finally {
-            IOUtil.close(jos);
+            writer.close();
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
 
     }
 
     public File pickOneSource(TreeMap<String, UberEntry> tree, UberEntry entry) throws IOException {
-        if( entry.getSources().isEmpty() ) {
+        return pickOneSource(null, tree, entry);
+    }
+
+    public File pickOneSource(Transformer transformer, TreeMap<String, UberEntry> tree, UberEntry entry) throws IOException {
+        if( entry.getSourceList().isEmpty() ) {
             return null;
         }
 
-        if (entry.getSources().size() > 1) {
-            LinkedList<File> ignores = new LinkedList<File>(entry.getSources());
+        if (entry.getSourceList().size() > 1) {
+            LinkedList<File> ignores = new LinkedList<File>(entry.getSourceList());
             File pick = ignores.removeFirst();
 
             if( isFileTypeThatCanIgnoreDuplicates( entry.getPath() ) ) {
@@ -182,7 +620,7 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
                 // If all the sources are duplicates, then we avoid logging a warning to the user.
                 for (Iterator<File> i = ignores.iterator(); i.hasNext();) {
                     File file =  i.next();
-                    if( FileUtils.contentEquals(pick, file) ) {
+                    if( contentEquals(pick, file) ) {
                         i.remove();
                     }
                 }
@@ -190,8 +628,8 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
 
             if( !ignores.isEmpty() ) {
                 String msgPrefix = "Overlapping sources for jar entry: ";
-                if( currentTransformer!=null ) {
-                    msgPrefix = currentTransformer.getClass().getSimpleName()+": "+msgPrefix;
+                if( transformer!=null ) {
+                    msgPrefix = transformer.getClass().getSimpleName()+": "+msgPrefix;
                 }
                 getLogger().warn("  "+msgPrefix+entry.getPath());
                 getLogger().warn("    Picking source: " + originalJar(pick));
@@ -203,7 +641,7 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
             entry = new UberEntry(entry).addSource(pick);
             tree.put(entry.getPath(), entry);
         }
-        return entry.getSources().get(0);
+        return entry.getSourceList().get(0);
     }
 
     /**
@@ -212,16 +650,71 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
      * 
      * @param source
      * @return
-     * @throws IOException
      */
-    private File originalJar(File source) throws IOException {
-        String sourcePath = source.getCanonicalPath();
-        for (File file : extractionMapping.keySet()) {
-            if( sourcePath.startsWith(file.getCanonicalPath()+File.separator) ) {
-                return extractionMapping.get(file);
+    private File originalJar(File source) {
+        JarEntryFile origin = getOrigin(source);
+        return origin == null ? source : origin.getJar();
+    }
+
+    public JarEntryFile getOrigin(File source) {
+        if( source instanceof JarEntryFile ) {
+            return (JarEntryFile) source;
+        }
+        synchronized (origins) {
+            return origins.get(source);
+        }
+    }
+
+    /**
+     * Compares the sizes and CRC-32s of two sources.  Jar entries use the CRC
+     * recorded in the jar, other files get read once.  The content only gets
+     * compared byte by byte when the CRC-32s match, since they could collide.
+     */
+    boolean contentEquals(File a, File b) throws IOException {
+        if( a.length() != b.length() || checksum(a) != checksum(b) ) {
+            return false;
+        }
+        InputStream as = openStream(a);
+        try {
+            InputStream bs = openStream(b);
+            try {
+                return IOUtil.contentEquals(as, bs);
+            } finally {
+                IOUtil.close(bs);
+            }
+        } finally {
+            IOUtil.close(as);
+        }
+    }
+
+    private long checksum(File source) throws IOException {
+        if( source instanceof JarEntryFile ) {
+            long crc = ((JarEntryFile) source).getCrc();
+            if( crc != -1 ) {
+                return crc;
+            }
+        }
+        Long rc = checksums.get(source);
+        if( rc == null ) {
+            // Computed without holding a lock, a source checked concurrently just gets read twice.
+            CRC32 crc = new CRC32();
+            InputStream is = openStream(source);
+            try {
+                byte[] buffer = new byte[8 * 1024];
+                int c;
+                while ((c = is.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, c);
+                }
+            } finally {
+                IOUtil.close(is);
+            }
+            rc = crc.getValue();
+            Long existing = checksums.putIfAbsent(source, rc);
+            if( existing != null ) {
+                rc = existing;
             }
         }
-        return source;
+        return rc;
     }
 
     private boolean isFileTypeThatCanIgnoreDuplicates(String path) {
@@ -244,6 +737,30 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
                 ;
     }
 
+    public UberizeOptions getOptions() {
+        return options;
+    }
+
+    public StagingStore getStagingStore() {
+        return stagingStore;
+    }
+
+    public File reuseOutput(File workDir, String path, File source) {
+        return state == null ? null : state.reuseOutput(workDir, path, source);
+    }
+
+    public void recordOutput(File workDir, String path, File source) {
+        JarEntryFile origin = getOrigin(source);
+        if( origin != null ) {
+            synchronized (origins) {
+                origins.put(new File(workDir, path), origin);
+            }
+        }
+        if (state != null) {
+            state.recordOutput(workDir, path, source);
+        }
+    }
+
     public HashMap<String, String>  getClassRelocations() {
         return this.classRelocations;
     }
@@ -263,12 +780,35 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
     private UberEntry getNode(TreeMap<String, UberEntry> nodes, String path) {
         UberEntry node = nodes.get(path);
         if (node == null) {
-            node = new UberEntry(path);
+            node = new UberEntry(path, options.isKeepHistory());
             nodes.put(path, node);
         }
         return node;
     }
 
+    /**
+     * @return a hash of the configuration held in the public fields of a
+     * transformer, used to know if a cached result can be reused.
+     */
+    static public String fingerprint(Object config) {
+        return IncrementalState.fingerprint(config);
+    }
+
+    /**
+     * Opens the content of a source file.  Use this instead of opening
+     * a FileInputStream since the source may not have been extracted yet.
+     *
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    static public InputStream openStream(File source) throws IOException {
+        if( source instanceof LazySource ) {
+            return ((LazySource) source).openStream();
+        }
+        return new FileInputStream(source);
+    }
+
     static public File writeFile(File basedir, String path, InputStream is) throws IOException {
         File file = prepareFile(basedir, path);
         try {
@@ -298,7 +838,7 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
         List<Filter> list = new ArrayList<Filter>();
 
         for (int i = 0; i < filters.size(); i++) {
-            Filter filter = (Filter) filters.get(i);
+            Filter filter = filters.get(i);
 
             if (filter.canFilter(jar)) {
                 list.add(filter);
@@ -309,9 +849,9 @@ public class DefaultUberizer extends AbstractLogEnabled implements Uberizer {
         return list;
     }
 
-    private boolean isFiltered(List filters, String name) {
+    private boolean isFiltered(List<Filter> filters, String name) {
         for (int i = 0; i < filters.size(); i++) {
-            Filter filter = (Filter) filters.get(i);
+            Filter filter = filters.get(i);
 
             if (filter.isFiltered(name)) {
                 return true;
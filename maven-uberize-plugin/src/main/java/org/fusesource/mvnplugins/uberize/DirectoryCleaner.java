@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Cleans a work directory without making the run wait for it.  The directory gets
+ * renamed aside, which is a single file system call, and the renamed directory is
+ * deleted by a background thread while the new run fills the work directory.
+ *
+ * If the run ends before the deletion does and the deletion gets abandoned, the
+ * renamed directory is left next to the work directory and is deleted by the next run.
+ */
+class DirectoryCleaner implements Runnable {
+
+    private static final String ASIDE = ".old-";
+
+    private final ArrayList<File> dirs;
+    private final Thread thread;
+    private volatile boolean abandoned;
+    private IOException failure;
+
+    private DirectoryCleaner(ArrayList<File> dirs) {
+        this.dirs = dirs;
+        this.thread = new Thread(this, "uberize cleaner");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Moves a directory aside and starts deleting it in the background.  If the
+     * directory can't be renamed, it's left as it is.
+     *
+     * @return the cleaner or null if there is nothing to delete.
+     */
+    static DirectoryCleaner start(File dir) {
+        ArrayList<File> dirs = new ArrayList<File>();
+        File parent = dir.getParentFile();
+        String prefix = dir.getName() + ASIDE;
+
+        // Directories abandoned by previous runs.
+        String[] names = parent == null ? null : parent.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    dirs.add(new File(parent, name));
+                }
+            }
+        }
+
+        if (dir.exists()) {
+            File aside = new File(parent, prefix + System.currentTimeMillis());
+            for (int counter = 1; aside.exists(); counter++) {
+                aside = new File(parent, prefix + System.currentTimeMillis() + "." + counter);
+            }
+            if (dir.renameTo(aside)) {
+                dirs.add(aside);
+            }
+        }
+        if (dirs.isEmpty()) {
+            return null;
+        }
+
+        DirectoryCleaner cleaner = new DirectoryCleaner(dirs);
+        cleaner.thread.start();
+        return cleaner;
+    }
+
+    public void run() {
+        try {
+            for (File dir : dirs) {
+                delete(dir);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void delete(File file) throws IOException {
+        if (abandoned) {
+            return;
+        }
+        File[] children = file.listFiles();
+        // Don't follow links to directories outside of the one being deleted.
+        if (children != null && file.getCanonicalFile().equals(file.getAbsoluteFile())) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!abandoned && !file.delete() && file.exists()) {
+            throw new IOException("Could not delete: " + file);
+        }
+    }
+
+    /**
+     * Waits for the deletion to finish.  If the waiting thread gets interrupted
+     * the deletion is abandoned.
+     *
+     * @throws IOException if some of the files could not be deleted.
+     */
+    void await() throws IOException {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            abandoned = true;
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A Transformer which transforms each of the entries it is interested in on
+ * its own.  Consecutive entry transformers get applied in a single walk over
+ * the entries they declared an interest in, each entry is passed through the
+ * interested transformers in the configured order.
+ */
+public interface EntryTransformer extends Transformer {
+
+    /**
+     * @return the glob patterns or exact paths of the entries the transformer
+     * is interested in.  Null or empty if it's interested in all the entries.
+     */
+    public Collection getInterests();
+
+    /**
+     * @return true if the transformer should transform the entry at the path.  Only
+     * called for the entries which match the interests.
+     */
+    public boolean matches(String path);
+
+    /**
+     * Transforms an entry.  The returned entry must have the same path.
+     *
+     * @param uberizer the Uberizer instance requesting the transformation.
+     * @param workDir a work directory that the transformer can store transformed files in
+     * @param entry the entry to transform, it will have at least one source
+     * @return the new entry, the same entry if it does not change, or null to remove it
+     * @throws IOException
+     */
+    public UberEntry transform(Uberizer uberizer, File workDir, UberEntry entry) throws IOException;
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Tracks what is in the work directory between uberize runs so that an
+ * incremental run can reuse the extracted jars and transformer outputs
+ * of the inputs which did not change.
+ *
+ * The fingerprints of the previous run are loaded and the state file is
+ * deleted up front.  It only gets written back once the run completes, so
+ * a failed run invalidates the whole work directory.
+ *
+ * When not enabled, the work directory is cleaned and nothing is reused.
+ */
+class IncrementalState {
+
+    static final String STATE_FILE = "fingerprints.properties";
+
+    private static final String EXTRACTED = "|extracted";
+
+    private final File targetDir;
+    private final boolean enabled;
+    private final Properties previous = new Properties();
+    private final Properties current = new Properties();
+    private final HashSet<String> reusableTransformers = new HashSet<String>();
+    private final HashSet<String> keep = new HashSet<String>();
+
+    IncrementalState(File targetDir, boolean enabled) throws IOException {
+        this.targetDir = targetDir;
+        this.enabled = enabled;
+        if (!enabled) {
+            FileUtils.cleanDirectory(targetDir);
+            return;
+        }
+
+        File file = new File(targetDir, STATE_FILE);
+        if (file.exists()) {
+            InputStream is = new FileInputStream(file);
+            try {
+                previous.load(is);
+            } finally {
+                IOUtil.close(is);
+            }
+            if (!file.delete()) {
+                throw new IOException("Could not delete: " + file);
+            }
+        }
+        keep.add(STATE_FILE);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Keeps a file of the work directory from being deleted as unused.
+     */
+    public void keep(File file) {
+        keep.add(file.getName());
+    }
+
+    /**
+     * Registers a source jar extracted into the work directory.  The extraction directory
+     * is deleted if the jar changed since the previous run.
+     *
+     * @return true if the jar did not change since the previous run.
+     */
+    public boolean checkJar(String id, File workDir, String fingerprint) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        keep.add(id);
+        String value = previous.getProperty("jar." + id);
+        if (value != null && (value.equals(fingerprint) || value.equals(fingerprint + EXTRACTED))) {
+            return true;
+        }
+        if (workDir.exists()) {
+            FileUtils.deleteDirectory(workDir);
+        }
+        return false;
+    }
+
+    /**
+     * @return true if all the entries of an unchanged jar were extracted in the previous run.
+     */
+    public boolean isJarExtracted(String id, String fingerprint) {
+        return enabled && (fingerprint + EXTRACTED).equals(previous.getProperty("jar." + id));
+    }
+
+    public void addJar(String id, String fingerprint, boolean extracted) {
+        if (enabled) {
+            current.setProperty("jar." + id, extracted ? fingerprint + EXTRACTED : fingerprint);
+        }
+    }
+
+    /**
+     * Registers a transformer work directory.  The directory is deleted if the
+     * transformer configuration changed since the previous run.
+     */
+    public void checkTransformer(String id, File workDir, String fingerprint) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        keep.add(id);
+        current.setProperty("transformer." + id, fingerprint);
+        if (fingerprint.equals(previous.getProperty("transformer." + id))) {
+            reusableTransformers.add(id);
+        } else if (workDir.exists()) {
+            FileUtils.deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * @return the file a transformer generated in the previous run from the same, unchanged,
+     * source or null if it has to be generated again.
+     */
+    public File reuseOutput(File workDir, String path, File source) {
+        String id = workDir.getName();
+        if (!reusableTransformers.contains(id) || !(source instanceof JarEntryFile)
+                || !((JarEntryFile) source).getSourceJar().isUnchanged()) {
+            return null;
+        }
+        String value = previous.getProperty("output." + id + "." + path);
+        if (!sourceKey((JarEntryFile) source).equals(value)) {
+            return null;
+        }
+        File file = new File(workDir, path);
+        return file.isFile() ? file : null;
+    }
+
+    public void recordOutput(File workDir, String path, File source) {
+        if (enabled && source instanceof JarEntryFile) {
+            current.setProperty("output." + workDir.getName() + "." + path, sourceKey((JarEntryFile) source));
+        }
+    }
+
+    private static String sourceKey(JarEntryFile source) {
+        return source.getJar().getPath() + "!" + source.getEntryName();
+    }
+
+    /**
+     * Deletes whatever the current run did not use from the work directory and
+     * saves the fingerprints for the next run.
+     */
+    public void finish() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        File[] files = targetDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!keep.contains(file.getName())) {
+                    FileUtils.forceDelete(file);
+                }
+            }
+        }
+        OutputStream os = new FileOutputStream(new File(targetDir, STATE_FILE));
+        try {
+            current.store(os, "uberize work directory fingerprints");
+        } finally {
+            IOUtil.close(os);
+        }
+    }
+
+    /**
+     * @return a fingerprint of an object's configuration.  Objects are compared
+     * by the values of their fields, recursively.  Transient fields are skipped, so
+     * caches built while an object is in use must be transient.
+     */
+    static String fingerprint(Object value) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, value, 0);
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(sb.toString().getBytes("UTF-8"));
+            StringBuilder rc = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                rc.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return rc.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void append(StringBuilder sb, Object value, int depth) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value.getClass().isArray()) {
+            sb.append('[');
+            for (int i = 0; i < Array.getLength(value); i++) {
+                append(sb, Array.get(value, i), depth + 1);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof Set) {
+            // Set iteration order is not stable.
+            ArrayList<String> items = new ArrayList<String>();
+            for (Iterator i = ((Set) value).iterator(); i.hasNext();) {
+                StringBuilder item = new StringBuilder();
+                append(item, i.next(), depth + 1);
+                items.add(item.toString());
+            }
+            Collections.sort(items);
+            sb.append(items);
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            for (Iterator i = ((Collection) value).iterator(); i.hasNext();) {
+                append(sb, i.next(), depth + 1);
+                sb.append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof Map) {
+            ArrayList<String> items = new ArrayList<String>();
+            for (Iterator i = ((Map) value).entrySet().iterator(); i.hasNext();) {
+                Map.Entry entry = (Map.Entry) i.next();
+                StringBuilder item = new StringBuilder();
+                append(item, entry.getKey(), depth + 1);
+                item.append('=');
+                append(item, entry.getValue(), depth + 1);
+                items.add(item.toString());
+            }
+            Collections.sort(items);
+            sb.append(items);
+        } else if (value.getClass().getName().startsWith("java.") || depth > 8) {
+            sb.append(value);
+        } else {
+            sb.append(value.getClass().getName()).append('{');
+            for (Class c = value.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    sb.append(field.getName()).append('=');
+                    try {
+                        append(sb, field.get(value), depth + 1);
+                    } catch (IllegalAccessException e) {
+                        sb.append('?');
+                    }
+                    sb.append(';');
+                }
+            }
+            sb.append('}');
+        }
+    }
+
+}
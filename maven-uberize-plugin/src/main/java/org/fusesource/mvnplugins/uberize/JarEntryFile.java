@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * A source file which is backed by an entry of one of the source jars.
+ * The file path points to where the entry gets extracted in the
+ * work directory, but the entry is only written there once {@link #extract()}
+ * is called.  Until then it's content can only be read via {@link #openStream()}.
+ */
+public class JarEntryFile extends File implements LazySource {
+
+    // Only the details of the JarEntry which are needed are kept since
+    // there is one of these for every entry of every source jar.
+    private final SourceJar sourceJar;
+    private final String name;
+    private final long crc;
+    private final long size;
+    private boolean extracted;
+
+    JarEntryFile(SourceJar sourceJar, JarEntry entry) {
+        this(sourceJar, entry.getName(), entry.getCrc(), entry.getSize());
+    }
+
+    JarEntryFile(SourceJar sourceJar, String name, long crc, long size) {
+        super(sourceJar.getExtractDir(), name);
+        this.sourceJar = sourceJar;
+        this.name = name;
+        this.crc = crc;
+        this.size = size;
+    }
+
+    /**
+     * @return the jar this entry was loaded from.
+     */
+    public File getJar() {
+        return sourceJar.getJar();
+    }
+
+    /**
+     * @return the name of the entry in the jar.
+     */
+    public String getEntryName() {
+        return name;
+    }
+
+    /**
+     * Opens the content of the entry directly from the source jar.
+     *
+     * @return
+     * @throws IOException
+     */
+    public InputStream openStream() throws IOException {
+        JarFile jarFile = sourceJar.getJarFile();
+        ZipEntry entry = jarFile.getEntry(name);
+        if (entry == null) {
+            throw new FileNotFoundException(name + " not found in " + sourceJar.getJar());
+        }
+        return jarFile.getInputStream(entry);
+    }
+
+    SourceJar getSourceJar() {
+        return sourceJar;
+    }
+
+    RawZipEntry getRawEntry() throws IOException {
+        return sourceJar.getRawEntry(name);
+    }
+
+    /**
+     * @return true if the entry has been written to the work directory.
+     */
+    synchronized public boolean isExtracted() {
+        return extracted;
+    }
+
+    /**
+     * Writes the entry to the work directory if it has not been extracted yet.
+     *
+     * @return this file
+     * @throws IOException
+     */
+    synchronized public File extract() throws IOException {
+        if (!extracted) {
+            sourceJar.getOutputDirectory().writeFile(name, openStream());
+            extracted = true;
+        }
+        return this;
+    }
+
+    /**
+     * Flags the entry as extracted because the work directory still holds
+     * it from a previous run.
+     */
+    synchronized void markExtracted() {
+        extracted = true;
+    }
+
+    /**
+     * @return the CRC-32 of the entry's content as recorded in the jar, or -1 if not known.
+     */
+    public long getCrc() {
+        return crc;
+    }
+
+    /**
+     * @return the uncompressed size recorded in the jar, or -1 if not known.
+     */
+    long getEntrySize() {
+        return size;
+    }
+
+    /**
+     * @return the uncompressed size of the entry, even if it has not been extracted yet.
+     */
+    public long length() {
+        if (size < 0) {
+            return super.length();
+        }
+        return size;
+    }
+
+}
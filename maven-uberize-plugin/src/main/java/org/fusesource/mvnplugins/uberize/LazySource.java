@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A source whose content may not have been written to its path in the work
+ * directory yet.  Its content can always be read via {@link #openStream()}, it
+ * has to be extracted before it can be used as a plain file.
+ */
+public interface LazySource {
+
+    /**
+     * Opens the content of the source.
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * @return true if the content has been written to the path of the source.
+     */
+    boolean isExtracted();
+
+    /**
+     * Writes the content to the path of the source if it has not been done yet.
+     *
+     * @return the source
+     * @throws IOException
+     */
+    File extract() throws IOException;
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+/**
+ * Marks a Transformer which only reads the content of its sources using
+ * {@link DefaultUberizer#openStream(java.io.File)}.  Such transformers can run
+ * against sources which have not been extracted to the work directory yet.
+ *
+ * When lazy extraction is enabled, all the sources get extracted before
+ * running a transformer which does not implement this interface.
+ */
+public interface LazySourceTransformer extends Transformer {
+}
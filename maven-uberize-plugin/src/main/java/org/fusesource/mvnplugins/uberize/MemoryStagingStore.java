@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps the generated files on the heap, which suits small and medium sized
+ * uber jars.
+ */
+public class MemoryStagingStore extends AbstractStagingStore {
+
+    public File write(File basedir, String path, byte[] data) throws IOException {
+        return new MemoryFile(this, basedir, path, data);
+    }
+
+    private static class MemoryFile extends StagedFile {
+        private byte[] data;
+
+        MemoryFile(StagingStore store, File basedir, String path, byte[] data) {
+            super(store, basedir, path);
+            this.data = data;
+        }
+
+        protected byte[] load() {
+            return data;
+        }
+
+        protected long size() {
+            return data.length;
+        }
+
+        protected void release() {
+            data = null;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes many files into a directory with as few file system calls as possible.
+ * Unlike {@link DefaultUberizer#prepareFile(File, String)}, the directory only gets
+ * canonicalized once and the paths are checked lexically so they can't escape it.
+ * The directories already created are remembered and the copy buffers are reused.
+ *
+ * Files can be written concurrently.
+ */
+class OutputDirectory {
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
+
+    private final File dir;
+    private final HashSet<String> createdDirs = new HashSet<String>();
+
+    OutputDirectory(File dir) throws IOException {
+        this.dir = dir.getCanonicalFile();
+    }
+
+    /**
+     * @return the canonical directory the files get written to.
+     */
+    File getDir() {
+        return dir;
+    }
+
+    /**
+     * Resolves a path in the directory and creates its parent directories.
+     *
+     * @throws IOException if the path would resolve outside of the directory.
+     */
+    File prepareFile(String path) throws IOException {
+        checkPath(path);
+        int p = path.lastIndexOf('/');
+        if (p > 0) {
+            String parent = path.substring(0, p);
+            boolean created;
+            synchronized (createdDirs) {
+                created = createdDirs.contains(parent);
+            }
+            // Only remembered once it exists, other threads may be creating it concurrently.
+            if (!created) {
+                new File(dir, parent).mkdirs();
+                synchronized (createdDirs) {
+                    createdDirs.add(parent);
+                }
+            }
+        }
+        return new File(dir, path);
+    }
+
+    File writeFile(String path, InputStream is) throws IOException {
+        File file = prepareFile(path);
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                byte[] buffer = BUFFERS.get();
+                int c;
+                while ((c = is.read(buffer)) >= 0) {
+                    os.write(buffer, 0, c);
+                }
+            } finally {
+                IOUtil.close(os);
+            }
+        } finally {
+            IOUtil.close(is);
+        }
+        return file;
+    }
+
+    File writeFile(String path, byte[] data) throws IOException {
+        File file = prepareFile(path);
+        FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        } finally {
+            IOUtil.close(os);
+        }
+        return file;
+    }
+
+    /**
+     * Rejects the paths which are absolute or hold a '..' segment.  This covers all the
+     * paths which would fail the canonical path check of {@link DefaultUberizer#prepareFile(File, String)}.
+     */
+    static void checkPath(String path) throws IOException {
+        if (path.length() == 0 || path.charAt(0) == '/' || path.charAt(0) == '\\'
+                || (path.length() > 1 && path.charAt(1) == ':') || path.indexOf('\0') >= 0) {
+            throw new IOException("Bad output file name resolution: " + path);
+        }
+        int start = 0;
+        int length = path.length();
+        while (start <= length) {
+            int end = start;
+            while (end < length && path.charAt(end) != '/' && path.charAt(end) != '\\') {
+                end++;
+            }
+            if (end - start == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') {
+                throw new IOException("Bad output file name resolution: " + path);
+            }
+            start = end + 1;
+        }
+    }
+
+}
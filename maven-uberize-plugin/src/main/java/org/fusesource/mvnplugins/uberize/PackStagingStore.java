@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends the generated files to a single pack file in the work directory.  Each
+ * staged file records the offset and size of its content in the pack, so
+ * shading 100k classes does not create 100k files and directories.
+ *
+ * Files can be written and read concurrently.
+ */
+public class PackStagingStore extends AbstractStagingStore {
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private long length;
+
+    public PackStagingStore(File dir) throws IOException {
+        dir.mkdirs();
+        file = File.createTempFile("staging-", ".pack", dir);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+    }
+
+    /**
+     * @return the pack file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public File write(File basedir, String path, byte[] data) throws IOException {
+        long offset;
+        synchronized (this) {
+            offset = length;
+            length += data.length;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        return new PackFile(basedir, path, offset, data.length);
+    }
+
+    private byte[] read(long offset, int size) throws IOException {
+        byte[] data = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of the pack file: " + file);
+            }
+        }
+        return data;
+    }
+
+    public void close() {
+        super.close();
+        try {
+            raf.close();
+        } catch (IOException ignore) {
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private class PackFile extends StagedFile {
+        private final long offset;
+        private final int size;
+
+        PackFile(File basedir, String path, long offset, int size) {
+            super(PackStagingStore.this, basedir, path);
+            this.offset = offset;
+            this.size = size;
+        }
+
+        protected byte[] load() throws IOException {
+            return read(offset, size);
+        }
+
+        protected long size() {
+            return size;
+        }
+    }
+
+}
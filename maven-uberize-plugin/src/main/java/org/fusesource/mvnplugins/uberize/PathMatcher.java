@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Matches paths against a set of patterns with the same semantics as
+ * {@link org.codehaus.plexus.util.SelectorUtils#matchPath(String, String, boolean)}.
+ *
+ * The patterns are compiled once: patterns without wildcards go into a hash set
+ * and the others are indexed by their first directory name when it is a literal.
+ * A path is only split into directory names once no matter how many patterns
+ * need to be checked.
+ */
+public class PathMatcher {
+
+    private static final String SEPARATOR = File.separator;
+    private static final String ANY_DIRS = "**";
+
+    private final boolean caseSensitive;
+    private final int size;
+    private final HashSet<String> literals = new HashSet<String>();
+    private final HashMap<String, List<CompiledPattern>> byFirstName = new HashMap<String, List<CompiledPattern>>();
+    private final ArrayList<CompiledPattern> others = new ArrayList<CompiledPattern>();
+
+    public PathMatcher(Collection patterns) {
+        this(patterns, true);
+    }
+
+    public PathMatcher(Collection patterns, boolean caseSensitive) {
+        this.caseSensitive = caseSensitive;
+        this.size = patterns == null ? 0 : patterns.size();
+        if (patterns == null) {
+            return;
+        }
+        for (Iterator i = patterns.iterator(); i.hasNext();) {
+            CompiledPattern pattern = new CompiledPattern((String) i.next());
+            if (pattern.literal && caseSensitive) {
+                literals.add(pattern.key);
+            } else if (pattern.segments.length > 0 && !pattern.segments[0].wildcard && caseSensitive) {
+                String first = pattern.segments[0].text;
+                List<CompiledPattern> list = byFirstName.get(first);
+                if (list == null) {
+                    list = new ArrayList<CompiledPattern>();
+                    byFirstName.put(first, list);
+                }
+                list.add(pattern);
+            } else {
+                others.add(pattern);
+            }
+        }
+    }
+
+    /**
+     * @return true if there are no patterns.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return true if the path matches any of the patterns.
+     */
+    public boolean matches(String path) {
+        if (size == 0) {
+            return false;
+        }
+        boolean absolute = path.startsWith(SEPARATOR);
+        String[] names = tokenize(path);
+        if (!literals.isEmpty() && literals.contains(key(absolute, names))) {
+            return true;
+        }
+        if (names.length > 0) {
+            List<CompiledPattern> list = byFirstName.get(names[0]);
+            if (list != null) {
+                for (CompiledPattern pattern : list) {
+                    if (pattern.matches(absolute, names, caseSensitive)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        for (CompiledPattern pattern : others) {
+            if (pattern.matches(absolute, names, caseSensitive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] tokenize(String path) {
+        ArrayList<String> rc = new ArrayList<String>();
+        int sepLength = SEPARATOR.length();
+        int start = 0;
+        if (sepLength == 1) {
+            char sep = SEPARATOR.charAt(0);
+            for (int i = 0; i <= path.length(); i++) {
+                if (i == path.length() || path.charAt(i) == sep) {
+                    if (i > start) {
+                        rc.add(path.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+        } else {
+            java.util.StringTokenizer tokenizer = new java.util.StringTokenizer(path, SEPARATOR);
+            while (tokenizer.hasMoreTokens()) {
+                rc.add(tokenizer.nextToken());
+            }
+        }
+        return rc.toArray(new String[rc.size()]);
+    }
+
+    private static String key(boolean absolute, String[] names) {
+        StringBuilder sb = new StringBuilder();
+        if (absolute) {
+            sb.append(SEPARATOR);
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(names[i]);
+        }
+        return sb.toString();
+    }
+
+    private static class Segment {
+        final String text;
+        final boolean anyDirs;
+        final boolean wildcard;
+
+        Segment(String text) {
+            this.text = text;
+            this.anyDirs = ANY_DIRS.equals(text);
+            this.wildcard = text.indexOf('*') >= 0 || text.indexOf('?') >= 0;
+        }
+
+        boolean matches(String name, boolean caseSensitive) {
+            if (!wildcard) {
+                if (caseSensitive) {
+                    return text.equals(name);
+                }
+                if (text.length() != name.length()) {
+                    return false;
+                }
+                for (int i = 0; i < text.length(); i++) {
+                    if (!sameChar(text.charAt(i), name.charAt(i), false)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return glob(text, name, caseSensitive);
+        }
+    }
+
+    private static class CompiledPattern {
+        final boolean absolute;
+        final Segment[] segments;
+        final boolean literal;
+        final String key;
+
+        CompiledPattern(String pattern) {
+            absolute = pattern.startsWith(SEPARATOR);
+            String[] names = tokenize(pattern);
+            segments = new Segment[names.length];
+            boolean wildcard = false;
+            for (int i = 0; i < names.length; i++) {
+                segments[i] = new Segment(names[i]);
+                wildcard |= segments[i].wildcard;
+            }
+            literal = !wildcard;
+            key = key(absolute, names);
+        }
+
+        /**
+         * Tracks the pattern positions reachable after each directory name, a "**"
+         * can stay in place or be skipped.
+         */
+        boolean matches(boolean absolute, String[] names, boolean caseSensitive) {
+            if (absolute != this.absolute) {
+                return false;
+            }
+            int length = segments.length;
+            boolean[] states = new boolean[length + 1];
+            boolean[] next = new boolean[length + 1];
+            states[0] = true;
+            closure(states);
+            for (String name : names) {
+                boolean any = false;
+                for (int i = 0; i < length; i++) {
+                    next[i + 1] = false;
+                }
+                next[0] = false;
+                for (int i = 0; i < length; i++) {
+                    if (!states[i]) {
+                        continue;
+                    }
+                    Segment segment = segments[i];
+                    if (segment.anyDirs) {
+                        next[i] = true;
+                        any = true;
+                    } else if (segment.matches(name, caseSensitive)) {
+                        next[i + 1] = true;
+                        any = true;
+                    }
+                }
+                if (!any) {
+                    return false;
+                }
+                boolean[] t = states;
+                states = next;
+                next = t;
+                closure(states);
+            }
+            return states[length];
+        }
+
+        private void closure(boolean[] states) {
+            for (int i = 0; i < segments.length; i++) {
+                if (states[i] && segments[i].anyDirs) {
+                    states[i + 1] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches a single directory name against a pattern which can contain
+     * '*' (zero or more characters) and '?' (one character).
+     */
+    static boolean glob(String pattern, String str, boolean caseSensitive) {
+        int p = 0;
+        int s = 0;
+        int star = -1;
+        int mark = 0;
+        while (s < str.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == '*') {
+                star = p++;
+                mark = s;
+            } else if (p < pattern.length() && (pattern.charAt(p) == '?' || sameChar(pattern.charAt(p), str.charAt(s), caseSensitive))) {
+                p++;
+                s++;
+            } else if (star >= 0) {
+                p = star + 1;
+                s = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '*') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+    private static boolean sameChar(char a, char b, boolean caseSensitive) {
+        if (a == b) {
+            return true;
+        }
+        return !caseSensitive && (Character.toUpperCase(a) == Character.toUpperCase(b)
+                || Character.toLowerCase(a) == Character.toLowerCase(b));
+    }
+
+}
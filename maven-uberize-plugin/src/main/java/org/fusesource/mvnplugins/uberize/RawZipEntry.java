@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+
+/**
+ * The central directory record of a zip entry.  It holds the information
+ * needed to copy the compressed data of the entry as is into another zip file.
+ */
+class RawZipEntry {
+
+    static final int LOCSIG = 0x04034b50;
+    static final int CENSIG = 0x02014b50;
+    static final int ENDSIG = 0x06054b50;
+    static final int LOCHDR = 30;
+    static final int CENHDR = 46;
+    static final int ENDHDR = 22;
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    final int flags;
+    final int method;
+    final long dosTime;
+    final long crc;
+    final long compressedSize;
+    final long size;
+    final long offset;
+
+    RawZipEntry(int flags, int method, long dosTime, long crc, long compressedSize, long size, long offset) {
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.offset = offset;
+    }
+
+    /**
+     * Reads the central directory of a zip file.  Only the entries which can be
+     * copied as is are returned.
+     *
+     * @param zip
+     * @return a map of entry name to entry, or null if the zip file uses
+     *         features (like zip64) that are not supported.
+     * @throws IOException
+     */
+    static HashMap<String, RawZipEntry> readCentralDirectory(File zip) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zip, "r");
+        try {
+            // Find the end of central directory record, it's followed by a variable length comment.
+            long length = file.length();
+            int tailLength = (int) Math.min(length, ENDHDR + 0xFFFF);
+            byte[] tail = new byte[tailLength];
+            file.seek(length - tailLength);
+            file.readFully(tail);
+            int end = -1;
+            for (int i = tailLength - ENDHDR; i >= 0; i--) {
+                if (u32(tail, i) == ENDSIG && i + ENDHDR + u16(tail, i + 20) == tailLength) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                return null;
+            }
+
+            int total = u16(tail, end + 10);
+            long cenSize = u32(tail, end + 12);
+            long cenOffset = u32(tail, end + 16);
+            if (total == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+                // zip64
+                return null;
+            }
+
+            // Data may have been prepended to the zip (self extracting archives),
+            // which shifts all the recorded offsets.
+            long cenPosition = length - tailLength + end - cenSize;
+            long prefix = cenPosition - cenOffset;
+            if (cenPosition < 0 || prefix < 0) {
+                return null;
+            }
+
+            byte[] cen = new byte[(int) cenSize];
+            file.seek(cenPosition);
+            file.readFully(cen);
+
+            HashMap<String, RawZipEntry> rc = new HashMap<String, RawZipEntry>(total * 2);
+            int pos = 0;
+            for (int i = 0; i < total; i++) {
+                if (pos + CENHDR > cen.length || u32(cen, pos) != CENSIG) {
+                    return null;
+                }
+                int flags = u16(cen, pos + 8);
+                int method = u16(cen, pos + 10);
+                long dosTime = u32(cen, pos + 12);
+                long crc = u32(cen, pos + 16);
+                long compressedSize = u32(cen, pos + 20);
+                long size = u32(cen, pos + 24);
+                int nameLength = u16(cen, pos + 28);
+                int extraLength = u16(cen, pos + 30);
+                int commentLength = u16(cen, pos + 32);
+                long offset = u32(cen, pos + 42);
+                String name = new String(cen, pos + CENHDR, nameLength, "UTF-8");
+
+                boolean encrypted = (flags & 1) != 0;
+                if (!encrypted && (method == STORED || method == DEFLATED) && !rc.containsKey(name)) {
+                    rc.put(name, new RawZipEntry(flags, method, dosTime, crc, compressedSize, size, prefix + offset));
+                }
+                pos += CENHDR + nameLength + extraLength + commentLength;
+            }
+            return rc;
+        } finally {
+            file.close();
+        }
+    }
+
+    static int u16(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+    }
+
+    static long u32(byte[] b, int off) {
+        return (u16(b, off) | ((long) u16(b, off + 2) << 16)) & 0xFFFFFFFFL;
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Holds the details of jar entry sources in memory mapped files in the work
+ * directory, so that source jars with millions of entries do not need a
+ * {@link JarEntryFile} per entry on the heap.  The uber entries just hold a
+ * {@link Ref} to the source which re-creates the JarEntryFile when it gets
+ * accessed.  Only the extracted flags of the sources are kept on the heap.
+ *
+ * Sources get added while the uber entry tree is built, then the index gets
+ * sealed and can be read concurrently.
+ *
+ * The tree itself is not indexed: transformers get it as a TreeMap which they
+ * update in place, so the paths and the uber entries stay on the heap.
+ */
+class SourceIndex {
+
+    // jar id, crc, size, name offset and name length.
+    private static final int RECORD_SIZE = 4 + 8 + 8 + 8 + 4;
+
+    private final ArrayList<SourceJar> jars = new ArrayList<SourceJar>();
+    private final HashMap<SourceJar, Integer> jarIds = new HashMap<SourceJar, Integer>();
+    private final BitSet extracted = new BitSet();
+    private final File recordsFile;
+    private final File namesFile;
+    private DataOutputStream records;
+    private DataOutputStream names;
+    private long namesLength;
+    private int count;
+    private ByteBuffer recordMap;
+    private ByteBuffer nameMap;
+
+    SourceIndex(File dir) throws IOException {
+        dir.mkdirs();
+        recordsFile = File.createTempFile("sources-", ".idx", dir);
+        namesFile = File.createTempFile("sources-", ".names", dir);
+        records = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordsFile)));
+        names = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(namesFile)));
+    }
+
+    /**
+     * @return the files backing the index.
+     */
+    File[] getFiles() {
+        return new File[]{recordsFile, namesFile};
+    }
+
+    /**
+     * @return the number of sources in the index.
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Adds a source to the index.
+     *
+     * @return the reference the uber entry should hold instead of the source.
+     */
+    synchronized Ref add(JarEntryFile source) throws IOException {
+        if (records == null) {
+            throw new IllegalStateException("The index has been sealed");
+        }
+        SourceJar jar = source.getSourceJar();
+        Integer jarId = jarIds.get(jar);
+        if (jarId == null) {
+            jarId = jars.size();
+            jars.add(jar);
+            jarIds.put(jar, jarId);
+        }
+        byte[] name = source.getEntryName().getBytes("UTF-8");
+        records.writeInt(jarId);
+        records.writeLong(source.getCrc());
+        records.writeLong(source.getEntrySize());
+        records.writeLong(namesLength);
+        records.writeInt(name.length);
+        names.write(name);
+        namesLength += name.length;
+        if (source.isExtracted()) {
+            extracted.set(count);
+        }
+        return new Ref(this, count++);
+    }
+
+    /**
+     * Finishes adding sources and maps the index so it can be read.
+     */
+    synchronized void seal() throws IOException {
+        if (records == null) {
+            return;
+        }
+        records.close();
+        names.close();
+        records = null;
+        names = null;
+        if (namesLength > Integer.MAX_VALUE) {
+            throw new IOException("The source entry names are too large to be mapped: " + namesLength + " bytes");
+        }
+        recordMap = map(recordsFile);
+        nameMap = map(namesFile);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping remains valid after the channel is closed.
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Re-creates a source from the index.
+     */
+    JarEntryFile load(int id) {
+        if (recordMap == null) {
+            throw new IllegalStateException("The index has not been sealed");
+        }
+        int offset = id * RECORD_SIZE;
+        SourceJar jar = jars.get(recordMap.getInt(offset));
+        long crc = recordMap.getLong(offset + 4);
+        long size = recordMap.getLong(offset + 12);
+        int nameOffset = (int) recordMap.getLong(offset + 20);
+        byte[] name = new byte[recordMap.getInt(offset + 28)];
+        for (int i = 0; i < name.length; i++) {
+            name[i] = nameMap.get(nameOffset + i);
+        }
+        try {
+            return new IndexedSource(jar, new String(name, "UTF-8"), crc, size, id);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.toString());
+        }
+    }
+
+    synchronized boolean isExtracted(int id) {
+        return extracted.get(id);
+    }
+
+    synchronized void setExtracted(int id) {
+        extracted.set(id);
+    }
+
+    /**
+     * Deletes the files backing the index.
+     */
+    synchronized void close() {
+        IOUtil.close(records);
+        IOUtil.close(names);
+        records = null;
+        names = null;
+        recordMap = null;
+        nameMap = null;
+        // A mapped file can't be deleted on some platforms until the mapping gets garbage collected.
+        for (File file : getFiles()) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * A reference to a source in the index.
+     */
+    static final class Ref {
+        private final SourceIndex index;
+        private final int id;
+
+        Ref(SourceIndex index, int id) {
+            this.index = index;
+            this.id = id;
+        }
+
+        JarEntryFile load() {
+            return index.load(id);
+        }
+    }
+
+    /**
+     * A source loaded from the index, it keeps the extracted flag in the index.
+     */
+    private class IndexedSource extends JarEntryFile {
+        private final int id;
+
+        IndexedSource(SourceJar sourceJar, String name, long crc, long size, int id) {
+            super(sourceJar, name, crc, size);
+            this.id = id;
+        }
+
+        public boolean isExtracted() {
+            return SourceIndex.this.isExtracted(id);
+        }
+
+        synchronized public File extract() throws IOException {
+            if (!isExtracted()) {
+                super.extract();
+                setExtracted(id);
+            }
+            return this;
+        }
+
+        void markExtracted() {
+            setExtracted(id);
+        }
+    }
+}
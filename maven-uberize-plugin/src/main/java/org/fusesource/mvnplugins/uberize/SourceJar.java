@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.jar.JarFile;
+
+/**
+ * A jar being merged into the uber jar.  It keeps the jar open for the
+ * duration of an uberize run so that the entries can be streamed from it
+ * on demand.
+ */
+class SourceJar {
+
+    private final File jar;
+    private final File extractDir;
+    private OutputDirectory outputDirectory;
+    private JarFile jarFile;
+    private HashMap<String, RawZipEntry> rawEntries;
+    private boolean rawEntriesLoaded;
+    private boolean unchanged;
+
+    SourceJar(File jar, File extractDir) {
+        this.jar = jar;
+        this.extractDir = extractDir;
+    }
+
+    /**
+     * @return the original jar file.
+     */
+    public File getJar() {
+        return jar;
+    }
+
+    /**
+     * @return the directory the jar entries get extracted to.
+     */
+    public File getExtractDir() {
+        return extractDir;
+    }
+
+    /**
+     * @return writes the jar entries to the extract directory.
+     */
+    synchronized OutputDirectory getOutputDirectory() throws IOException {
+        if (outputDirectory == null) {
+            outputDirectory = new OutputDirectory(extractDir);
+        }
+        return outputDirectory;
+    }
+
+    /**
+     * @return true if the jar did not change since the previous incremental run.
+     */
+    public boolean isUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(boolean unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    synchronized public JarFile getJarFile() throws IOException {
+        if (jarFile == null) {
+            jarFile = new JarFile(jar);
+        }
+        return jarFile;
+    }
+
+    /**
+     * @return the central directory record of an entry or null if the
+     * entry's compressed data can not be copied as is.
+     */
+    synchronized RawZipEntry getRawEntry(String name) throws IOException {
+        if (!rawEntriesLoaded) {
+            rawEntries = RawZipEntry.readCentralDirectory(jar);
+            rawEntriesLoaded = true;
+        }
+        return rawEntries == null ? null : rawEntries.get(name);
+    }
+
+    synchronized public void close() {
+        rawEntries = null;
+        rawEntriesLoaded = false;
+        if (jarFile != null) {
+            try {
+                jarFile.close();
+            } catch (IOException ignore) {
+            }
+            jarFile = null;
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A file held by a {@link StagingStore} other than the work directory.  Like the
+ * jar entry sources, it only gets written to its path in the work directory when
+ * {@link #extract()} is called, until then its content can only be read via
+ * {@link #openStream()}.
+ */
+public abstract class StagedFile extends File implements LazySource {
+
+    private final StagingStore store;
+    private final File basedir;
+    private final String path;
+    private boolean extracted;
+
+    protected StagedFile(StagingStore store, File basedir, String path) {
+        super(basedir, path);
+        this.store = store;
+        this.basedir = basedir;
+        this.path = path;
+    }
+
+    /**
+     * @return the staged content.
+     */
+    protected abstract byte[] load() throws IOException;
+
+    /**
+     * @return the size of the staged content.
+     */
+    protected abstract long size();
+
+    /**
+     * Lets the store release the staged content once it's been extracted.
+     */
+    protected void release() {
+    }
+
+    synchronized public InputStream openStream() throws IOException {
+        if (extracted) {
+            return new FileInputStream(this);
+        }
+        return new ByteArrayInputStream(load());
+    }
+
+    /**
+     * @return true if the content has been written to the work directory.
+     */
+    synchronized public boolean isExtracted() {
+        return extracted;
+    }
+
+    /**
+     * Writes the content to the work directory if it has not been done yet.
+     *
+     * @return this file
+     * @throws IOException
+     */
+    synchronized public File extract() throws IOException {
+        if (!extracted) {
+            FileOutputStream os = new FileOutputStream(store.prepare(basedir, path));
+            try {
+                os.write(load());
+            } finally {
+                IOUtil.close(os);
+            }
+            extracted = true;
+            release();
+        }
+        return this;
+    }
+
+    synchronized public long length() {
+        if (extracted) {
+            return super.length();
+        }
+        return size();
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Holds the files transformers generate while the uber jar is being built.
+ * The {@link #DIRECTORY} store writes them to the work directory, the
+ * {@link #MEMORY} store keeps them on the heap and the {@link #PACK} store
+ * appends them all to a single file so no file system entry gets created
+ * per generated file.
+ */
+public interface StagingStore {
+
+    String DIRECTORY = "directory";
+    String MEMORY = "memory";
+    String PACK = "pack";
+
+    /**
+     * Stages the content of a generated file.
+     *
+     * @param basedir the work directory of the transformer
+     * @param path the path of the file in the work directory
+     * @param data the content of the file
+     * @return the staged file, use {@link DefaultUberizer#openStream(File)} to read it.
+     * @throws IOException
+     */
+    File write(File basedir, String path, byte[] data) throws IOException;
+
+    /**
+     * Prepares a file which has to be written to the work directory, either by
+     * a transformer which writes it itself or when a staged file gets extracted.
+     *
+     * @param basedir the work directory of the transformer
+     * @param path the path of the file in the work directory
+     * @return the file, its parent directories exist.
+     * @throws IOException
+     */
+    File prepare(File basedir, String path) throws IOException;
+
+    /**
+     * Releases the resources held by the store once the uber jar has been written.
+     */
+    void close();
+
+}
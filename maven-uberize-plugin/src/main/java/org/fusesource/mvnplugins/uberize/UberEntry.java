@@ -19,32 +19,54 @@
 package org.fusesource.mvnplugins.uberize;
 
 import java.io.File;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * An UberEntry represents a file path in an uber jar.  It
  * will keep track of overlapping source files until
  * a transformation can apply a merge strategy to them.
  * When a transformation is applied, a new UberEntry will
- * replace the previous one but it will maintain a reference
- * to it so that the transformation history of the file path
- * can be inspected.
+ * replace the previous one.  If the transformation history
+ * is enabled, it will maintain a reference to it so that
+ * the transformation history of the file path can be inspected.
+ * Otherwise the previous versions can be garbage collected.
  *
- * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
+ * Since trees can hold hundreds of thousands of entries, the
+ * sources are held in an array sized to fit or directly when
+ * there is only one.  Jar entry sources may also be held in a
+ * disk backed index, they get loaded when accessed.
  */
 public class UberEntry {
 
     private final String path;
-    private final ArrayList<File> sources = new ArrayList<File>();
     private final List<UberEntry> previous;
+    private final boolean history;
+    // null, a source, an Object[] of at least 2 sources or the SourceArrayList
+    // handed out by getSources().  A source is a File or a reference to a
+    // source held in a SourceIndex.
+    private Object sources;
 
     /**
      * Creates an UberEntry at located at the specified path.
      * @param path
      */
     public UberEntry(String path) {
-        this(path, (List<UberEntry>)null);
+        this(path, false);
+    }
+
+    /**
+     * Creates an original UberEntry.
+     *
+     * @param path
+     * @param history true if the derived entries should keep a reference to their previous version
+     */
+    public UberEntry(String path, boolean history) {
+        this.path = path;
+        this.history = history;
+        this.previous = null;
     }
 
     /**
@@ -66,30 +88,44 @@ public class UberEntry {
      */
     public UberEntry(String path, UberEntry previous) {
         this.path = path;
-        this.previous = toList(previous);
+        this.history = previous != null && previous.history;
+        this.previous = history ? toList(previous) : null;
     }
 
     static private List<UberEntry> toList(UberEntry entry) {
-        if( entry == null ) {
-            return null;
-        }
-        ArrayList rc = new ArrayList(1);
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>(1);
         rc.add(entry);
         return rc;
     }
 
     public UberEntry(String path, List<UberEntry> previous) {
+        UberEntry first = previous == null || previous.isEmpty() ? null : previous.get(0);
         this.path = path;
-        this.previous = previous;
+        this.history = first != null && first.history;
+        this.previous = history ? previous : null;
     }
 
     /**
      * A list which can be used to track all the overlapping source files associated with the path entry.
+     * The entry stops storing its sources compactly once it is called, use
+     * {@link #getSourceList()} instead.
      *
      * @return
      */
     public ArrayList<File> getSources() {
-        return sources;
+        if( !(sources instanceof SourceArrayList) ) {
+            sources = new SourceArrayList(new Sources());
+        }
+        return (SourceArrayList) sources;
+    }
+
+    /**
+     * A list view of the overlapping source files associated with the path entry.
+     *
+     * @return
+     */
+    public List<File> getSourceList() {
+        return new Sources();
     }
 
     /**
@@ -102,7 +138,8 @@ public class UberEntry {
     }
 
     /**
-     * @return The previous version of the UberEntry or null if this is the original version.
+     * @return The previous version of the UberEntry or null if this is the original
+     * version or the transformation history is not enabled.
      */
     public UberEntry getPrevious() {
         if( previous==null || previous.isEmpty() ) {
@@ -124,7 +161,116 @@ public class UberEntry {
     }
 
     public UberEntry addSource(File file) {
-        sources.add(file);
+        getSourceList().add(file);
         return this;
     }
+
+    UberEntry addSource(SourceIndex.Ref ref) {
+        new Sources().addSource(ref);
+        return this;
+    }
+
+    /**
+     * The sources of an entry which handed out its sources as an ArrayList.
+     */
+    private static class SourceArrayList extends ArrayList<File> {
+        SourceArrayList(List<File> sources) {
+            super(sources);
+        }
+    }
+
+    /**
+     * A list view of the sources field.
+     */
+    private class Sources extends AbstractList<File> implements RandomAccess {
+
+        public int size() {
+            if( sources == null ) {
+                return 0;
+            }
+            if( sources instanceof SourceArrayList ) {
+                return ((SourceArrayList) sources).size();
+            }
+            return sources instanceof Object[] ? ((Object[]) sources).length : 1;
+        }
+
+        private Object source(int index) {
+            if( index < 0 || index >= size() ) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            if( sources instanceof SourceArrayList ) {
+                return ((SourceArrayList) sources).get(index);
+            }
+            return sources instanceof Object[] ? ((Object[]) sources)[index] : sources;
+        }
+
+        public File get(int index) {
+            Object source = source(index);
+            if( source instanceof SourceIndex.Ref ) {
+                return ((SourceIndex.Ref) source).load();
+            }
+            return (File) source;
+        }
+
+        public File set(int index, File file) {
+            File rc = get(index);
+            if( sources instanceof SourceArrayList ) {
+                ((SourceArrayList) sources).set(index, file);
+            } else if( sources instanceof Object[] ) {
+                ((Object[]) sources)[index] = file;
+            } else {
+                sources = file;
+            }
+            return rc;
+        }
+
+        public void add(int index, File file) {
+            insert(index, file);
+        }
+
+        void addSource(SourceIndex.Ref ref) {
+            insert(size(), ref);
+        }
+
+        private void insert(int index, Object source) {
+            int size = size();
+            if( index < 0 || index > size ) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            if( sources instanceof SourceArrayList ) {
+                File file = source instanceof SourceIndex.Ref ? ((SourceIndex.Ref) source).load() : (File) source;
+                ((SourceArrayList) sources).add(index, file);
+            } else if( size == 0 ) {
+                sources = source;
+            } else {
+                Object[] rc = new Object[size + 1];
+                for (int i = 0; i < size; i++) {
+                    rc[i < index ? i : i + 1] = source(i);
+                }
+                rc[index] = source;
+                sources = rc;
+            }
+            modCount++;
+        }
+
+        public File remove(int index) {
+            File rc = get(index);
+            int size = size();
+            if( sources instanceof SourceArrayList ) {
+                ((SourceArrayList) sources).remove(index);
+            } else if( size == 1 ) {
+                sources = null;
+            } else if( size == 2 ) {
+                sources = source(1 - index);
+            } else {
+                Object[] files = (Object[]) sources;
+                Object[] update = new Object[size - 1];
+                System.arraycopy(files, 0, update, 0, index);
+                System.arraycopy(files, index + 1, update, index, size - index - 1);
+                sources = update;
+            }
+            modCount++;
+            return rc;
+        }
+    }
 }
@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The uber entry map used by the uberizer.  On top of the sorted path
+ * map, it indexes the entries by file extension so that transformers can
+ * look up their candidate entries instead of scanning the whole map.
+ *
+ * Transformers should use the static lookup methods, they fall back to a
+ * scan when given a plain TreeMap.  The lookups return a snapshot so the
+ * map can be updated while iterating the results.
+ */
+public class UberEntryTree extends TreeMap<String, UberEntry> {
+
+    // Entries removed through the iterators are not removed from the
+    // index, so the lookups check the paths are still in the map.
+    private final HashMap<String, TreeSet<String>> extensions = new HashMap<String, TreeSet<String>>();
+
+    public UberEntryTree() {
+    }
+
+    public UberEntryTree(Map<String, UberEntry> entries) {
+        putAll(entries);
+    }
+
+    public UberEntry put(String path, UberEntry entry) {
+        UberEntry rc = super.put(path, entry);
+        if (rc == null) {
+            String extension = getExtension(path);
+            TreeSet<String> paths = extensions.get(extension);
+            if (paths == null) {
+                paths = new TreeSet<String>();
+                extensions.put(extension, paths);
+            }
+            paths.add(path);
+        }
+        return rc;
+    }
+
+    public void putAll(Map<? extends String, ? extends UberEntry> map) {
+        for (Map.Entry<? extends String, ? extends UberEntry> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public UberEntry remove(Object key) {
+        UberEntry rc = super.remove(key);
+        if (rc != null) {
+            TreeSet<String> paths = extensions.get(getExtension((String) key));
+            if (paths != null) {
+                paths.remove(key);
+            }
+        }
+        return rc;
+    }
+
+    public void clear() {
+        super.clear();
+        extensions.clear();
+    }
+
+    public Object clone() {
+        return new UberEntryTree(this);
+    }
+
+    /**
+     * @return the extension of the file name of a path, without the dot.
+     */
+    static String getExtension(String path) {
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return "";
+        }
+        return path.substring(dot + 1);
+    }
+
+    /**
+     * @return the entries which have a file name ending with '.' + extension.
+     */
+    public static List<UberEntry> withExtension(TreeMap<String, UberEntry> tree, String extension) {
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>();
+        if (tree instanceof UberEntryTree) {
+            TreeSet<String> paths = ((UberEntryTree) tree).extensions.get(extension);
+            if (paths != null) {
+                for (String path : paths) {
+                    UberEntry entry = tree.get(path);
+                    if (entry != null) {
+                        rc.add(entry);
+                    }
+                }
+            }
+        } else {
+            for (UberEntry entry : tree.values()) {
+                if (getExtension(entry.getPath()).equals(extension)) {
+                    rc.add(entry);
+                }
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * @return the entries which have a path starting with the prefix.
+     */
+    public static List<UberEntry> withPrefix(TreeMap<String, UberEntry> tree, String prefix) {
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>();
+        for (Iterator<Map.Entry<String, UberEntry>> i = tree.tailMap(prefix).entrySet().iterator(); i.hasNext();) {
+            Map.Entry<String, UberEntry> entry = i.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            rc.add(entry.getValue());
+        }
+        return rc;
+    }
+
+    /**
+     * @return the entries which have a path equal to the specified path ignoring case.
+     */
+    public static List<UberEntry> equalsIgnoreCase(TreeMap<String, UberEntry> tree, String path) {
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>();
+        equalsIgnoreCase(tree, path, new StringBuilder(path.length()), rc);
+        return rc;
+    }
+
+    private static void equalsIgnoreCase(SortedMap<String, UberEntry> tree, String path, StringBuilder prefix, List<UberEntry> rc) {
+        // Walk the upper and lower case variants of each character, only following
+        // the prefixes some entry actually starts with.
+        SortedMap<String, UberEntry> tail = tree.tailMap(prefix.toString());
+        if (tail.isEmpty() || !tail.firstKey().startsWith(prefix.toString())) {
+            return;
+        }
+        int length = prefix.length();
+        if (length == path.length()) {
+            UberEntry entry = tree.get(prefix.toString());
+            if (entry != null) {
+                rc.add(entry);
+            }
+            return;
+        }
+        char c = path.charAt(length);
+        char upper = Character.toUpperCase(c);
+        char lower = Character.toLowerCase(c);
+        prefix.append(upper);
+        equalsIgnoreCase(tree, path, prefix, rc);
+        prefix.setLength(length);
+        if (lower != upper) {
+            prefix.append(lower);
+            equalsIgnoreCase(tree, path, prefix, rc);
+            prefix.setLength(length);
+        }
+    }
+
+    /**
+     * @return the entries which have a path matching the pattern as evaluated by
+     * a {@link PathMatcher}.
+     */
+    public static List<UberEntry> matching(TreeMap<String, UberEntry> tree, String pattern, boolean caseSensitive) {
+        List<UberEntry> candidates;
+        int wildcard = indexOfWildcard(pattern);
+        if (!caseSensitive) {
+            candidates = new ArrayList<UberEntry>(tree.values());
+        } else if (pattern.startsWith("**/*.") && indexOfWildcard(pattern.substring(5)) < 0
+                && pattern.indexOf('/', 5) < 0 && pattern.indexOf('.', 5) < 0) {
+            candidates = withExtension(tree, pattern.substring(5));
+        } else if (wildcard < 0) {
+            candidates = new ArrayList<UberEntry>(1);
+            UberEntry entry = tree.get(pattern);
+            if (entry != null) {
+                candidates.add(entry);
+            }
+        } else {
+            // Only the literal directories the pattern starts with can be used as a prefix.
+            // The last slash is left out since "dir/**" also matches "dir".
+            candidates = withPrefix(tree, pattern.substring(0, Math.max(pattern.lastIndexOf('/', wildcard), 0)));
+        }
+
+        PathMatcher matcher = new PathMatcher(Collections.singleton(pattern), caseSensitive);
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>(candidates.size());
+        for (UberEntry entry : candidates) {
+            if (matcher.matches(entry.getPath())) {
+                rc.add(entry);
+            }
+        }
+        return rc;
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        int star = pattern.indexOf('*');
+        int question = pattern.indexOf('?');
+        if (star < 0) {
+            return question;
+        }
+        return question < 0 ? star : Math.min(star, question);
+    }
+
+}
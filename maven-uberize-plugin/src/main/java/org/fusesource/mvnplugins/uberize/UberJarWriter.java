@@ -0,0 +1,684 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Writes the uber jar.  Unlike a JarOutputStream, it can copy the
+ * already compressed data of an entry in a source jar straight into
+ * the uber jar so it does not need to get inflated and deflated again.
+ *
+ * Entries are either stored or deflated at the level picked by the caller.
+ * Stored entries are streamed into the jar and their local header gets
+ * patched once their CRC is known.
+ *
+ * When created with an executor, the entries which need to be compressed
+ * get deflated concurrently.  They are still written in the order they were
+ * added, so the resulting jar does not depend on the number of threads used.
+ */
+class UberJarWriter {
+
+    private static final int EXTSIG = 0x08074b50;
+    private static final int ZIP64_ENDSIG = 0x06064b50;
+    private static final int ZIP64_LOCSIG = 0x07064b50;
+
+    private static final int FLAG_LEVEL = 0x06;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    /**
+     * Entries up to this size are deflated into memory, possibly on another thread.
+     * Larger ones are streamed into the jar followed by a data descriptor.
+     */
+    static final long BUFFERED_ENTRY_LIMIT = 1024 * 1024;
+
+    private static final class Record {
+        byte[] name;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        long offset;
+    }
+
+    private final RandomAccessFile file;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int count;
+    private long position;
+
+    private final long dosTime = javaToDosTime(System.currentTimeMillis());
+    private final ArrayList<Record> records = new ArrayList<Record>();
+    private final HashMap<File, RandomAccessFile> sources = new HashMap<File, RandomAccessFile>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] readBuffer = new byte[64 * 1024];
+    private final byte[] deflateBuffer = new byte[64 * 1024];
+
+    private final ExecutorService executor;
+    private final int window;
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+    private final ArrayList<ConcurrentLinkedQueue<Deflater>> deflaters = new ArrayList<ConcurrentLinkedQueue<Deflater>>();
+
+    UberJarWriter(File jar) throws IOException {
+        this(jar, null, 0);
+    }
+
+    /**
+     * @param jar the jar file to create
+     * @param executor used to deflate entries concurrently, may be null.
+     * @param window the maximum number of entries waiting to be written.
+     */
+    UberJarWriter(File jar, ExecutorService executor, int window) throws IOException {
+        this.executor = executor;
+        this.window = Math.max(window, 1);
+        for (int level = Deflater.DEFAULT_COMPRESSION; level <= Deflater.BEST_COMPRESSION; level++) {
+            deflaters.add(new ConcurrentLinkedQueue<Deflater>());
+        }
+        file = new RandomAccessFile(jar, "rw");
+        file.setLength(0);
+    }
+
+    public void putDirectory(final String name) throws IOException {
+        enqueue(new Pending() {
+            public void write() throws IOException {
+                Record record = record(name, RawZipEntry.STORED, 0);
+                record.dosTime = dosTime;
+                writeLocalHeader(record);
+            }
+        });
+    }
+
+    public void putEntry(String name, File source) throws IOException {
+        putEntry(name, source, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Adds an entry using the content of a source file.  Original jar entries
+     * are copied as is when they are already compressed the requested way, small
+     * entries are deflated in memory, and large or stored entries are streamed
+     * into the jar.
+     *
+     * @param level the deflate level or {@link CompressionPolicy#STORED}
+     */
+    public void putEntry(final String name, final File source, final int level) throws IOException {
+        if (source instanceof JarEntryFile) {
+            final JarEntryFile jarEntry = (JarEntryFile) source;
+            final RawZipEntry raw = jarEntry.getRawEntry();
+            if (raw != null && isCompressedAt(raw, level)) {
+                enqueue(new Pending() {
+                    public void write() throws IOException {
+                        if (!putRaw(name, jarEntry.getJar(), raw)) {
+                            putStreamed(name, source, level);
+                        }
+                    }
+                });
+                return;
+            }
+        }
+
+        if (level == CompressionPolicy.STORED || source.length() > BUFFERED_ENTRY_LIMIT) {
+            enqueue(new Pending() {
+                public void write() throws IOException {
+                    putStreamed(name, source, level);
+                }
+            });
+            return;
+        }
+
+        Callable<Deflated> task = new Callable<Deflated>() {
+            public Deflated call() throws IOException {
+                Deflater deflater = acquireDeflater(level);
+                try {
+                    InputStream is = DefaultUberizer.openStream(source);
+                    try {
+                        return deflate(is, deflater);
+                    } finally {
+                        IOUtil.close(is);
+                    }
+                } finally {
+                    releaseDeflater(level, deflater);
+                }
+            }
+        };
+
+        if (executor == null) {
+            Deflated deflated;
+            try {
+                deflated = task.call();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw (IOException) new IOException(e.toString()).initCause(e);
+            }
+            putDeflated(name, deflated, level);
+        } else {
+            final Future<Deflated> future = executor.submit(task);
+            enqueue(new Pending() {
+                public boolean isReady() {
+                    return future.isDone();
+                }
+
+                public void write() throws IOException {
+                    putDeflated(name, DefaultUberizer.get(future), level);
+                }
+
+                public void cancel() {
+                    future.cancel(true);
+                }
+            });
+        }
+    }
+
+    private void putStreamed(String name, File source, int level) throws IOException {
+        InputStream is = DefaultUberizer.openStream(source);
+        try {
+            putEntry(name, is, level);
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    /**
+     * Adds an entry which has already been deflated.
+     */
+    void putDeflated(String name, Deflated deflated, int level) throws IOException {
+        Record record = record(name, RawZipEntry.DEFLATED, levelFlags(level));
+        record.dosTime = dosTime;
+        record.crc = deflated.crc;
+        record.compressedSize = deflated.length;
+        record.size = deflated.size;
+        checkSize(record);
+        writeLocalHeader(record);
+        write(deflated.data, 0, deflated.length);
+    }
+
+    public void putEntry(String name, InputStream is) throws IOException {
+        putEntry(name, is, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Adds an entry, deflating the data read from the input stream.
+     *
+     * @param level the deflate level or {@link CompressionPolicy#STORED}
+     */
+    public void putEntry(String name, InputStream is, int level) throws IOException {
+        if (level == CompressionPolicy.STORED) {
+            putStored(name, is);
+            return;
+        }
+
+        Record record = record(name, RawZipEntry.DEFLATED, FLAG_DATA_DESCRIPTOR | levelFlags(level));
+        record.dosTime = dosTime;
+        writeLocalHeader(record);
+
+        long start = position;
+        long size = 0;
+        crc.reset();
+        Deflater deflater = acquireDeflater(level);
+        try {
+            int c;
+            while ((c = is.read(readBuffer)) >= 0) {
+                if (c > 0) {
+                    crc.update(readBuffer, 0, c);
+                    size += c;
+                    deflater.setInput(readBuffer, 0, c);
+                    while (!deflater.needsInput()) {
+                        deflate(deflater);
+                    }
+                }
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(deflater);
+            }
+        } finally {
+            releaseDeflater(level, deflater);
+        }
+        record.crc = crc.getValue();
+        record.size = size;
+        record.compressedSize = position - start;
+        checkSize(record);
+
+        writeInt(EXTSIG);
+        writeInt(record.crc);
+        writeInt(record.compressedSize);
+        writeInt(record.size);
+    }
+
+    /**
+     * Adds an uncompressed entry.  Stored entries can not use a data descriptor,
+     * so the CRC and sizes are written into the local header once known.
+     */
+    private void putStored(String name, InputStream is) throws IOException {
+        Record record = record(name, RawZipEntry.STORED, 0);
+        record.dosTime = dosTime;
+        writeLocalHeader(record);
+
+        long start = position;
+        crc.reset();
+        int c;
+        while ((c = is.read(readBuffer)) >= 0) {
+            if (c > 0) {
+                crc.update(readBuffer, 0, c);
+                write(readBuffer, 0, c);
+            }
+        }
+        record.crc = crc.getValue();
+        record.size = position - start;
+        record.compressedSize = record.size;
+        checkSize(record);
+
+        flush();
+        byte[] sizes = new byte[12];
+        putInt(sizes, 0, record.crc);
+        putInt(sizes, 4, record.compressedSize);
+        putInt(sizes, 8, record.size);
+        file.seek(record.offset + 14);
+        file.write(sizes);
+        file.seek(position);
+    }
+
+    /**
+     * @return true if the data of a source jar entry is compressed the way the level asks
+     * for.  Deflated entries record a range of levels in their flags, which is all we can
+     * check without deflating them again.
+     */
+    static boolean isCompressedAt(RawZipEntry raw, int level) {
+        if (level == CompressionPolicy.STORED) {
+            return raw.method == RawZipEntry.STORED;
+        }
+        return raw.method == RawZipEntry.DEFLATED && level != Deflater.NO_COMPRESSION
+                && (raw.flags & FLAG_LEVEL) == levelFlags(level);
+    }
+
+    /**
+     * @return the general purpose flags recording the range of a deflate level.
+     */
+    static int levelFlags(int level) {
+        switch (level) {
+            case Deflater.BEST_SPEED:
+                return 0x06;
+            case 2:
+                return 0x04;
+            case 8:
+            case Deflater.BEST_COMPRESSION:
+                return 0x02;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Adds an entry by copying the compressed data of an entry in a source jar.
+     *
+     * @return false if the entry's local header could not be found in the source jar.
+     */
+    public boolean putRaw(String name, File jar, RawZipEntry raw) throws IOException {
+        RandomAccessFile source = sources.get(jar);
+        if (source == null) {
+            source = new RandomAccessFile(jar, "r");
+            sources.put(jar, source);
+        }
+
+        // The local header has variable length fields which may differ from the central directory ones.
+        byte[] header = new byte[RawZipEntry.LOCHDR];
+        if (raw.offset + header.length > source.length()) {
+            return false;
+        }
+        source.seek(raw.offset);
+        source.readFully(header);
+        if (RawZipEntry.u32(header, 0) != RawZipEntry.LOCSIG) {
+            return false;
+        }
+        long dataOffset = raw.offset + RawZipEntry.LOCHDR + RawZipEntry.u16(header, 26) + RawZipEntry.u16(header, 28);
+        if (dataOffset + raw.compressedSize > source.length()) {
+            return false;
+        }
+
+        Record record = record(name, raw.method, 0);
+        record.dosTime = raw.dosTime;
+        record.crc = raw.crc;
+        record.compressedSize = raw.compressedSize;
+        record.size = raw.size;
+        writeLocalHeader(record);
+
+        flush();
+        FileChannel from = source.getChannel();
+        FileChannel to = file.getChannel();
+        long remaining = raw.compressedSize;
+        long pos = dataOffset;
+        while (remaining > 0) {
+            long c = from.transferTo(pos, remaining, to);
+            if (c <= 0) {
+                throw new IOException("Could not copy " + name + " from " + jar);
+            }
+            pos += c;
+            remaining -= c;
+        }
+        position += raw.compressedSize;
+        return true;
+    }
+
+    /**
+     * Writes the remaining entries and the central directory.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            pending.removeFirst().write();
+        }
+
+        long cenOffset = position;
+        for (Record record : records) {
+            boolean zip64 = record.offset >= 0xFFFFFFFFL;
+            writeInt(RawZipEntry.CENSIG);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(versionNeeded(record, zip64));
+            writeShort(record.flags);
+            writeShort(record.method);
+            writeInt(record.dosTime);
+            writeInt(record.crc);
+            writeInt(record.compressedSize);
+            writeInt(record.size);
+            writeShort(record.name.length);
+            writeShort(zip64 ? 12 : 0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt(zip64 ? 0xFFFFFFFFL : record.offset);
+            write(record.name, 0, record.name.length);
+            if (zip64) {
+                writeShort(0x0001);
+                writeShort(8);
+                writeLong(record.offset);
+            }
+        }
+        long cenSize = position - cenOffset;
+        int total = records.size();
+
+        if (total >= 0xFFFF || cenOffset >= 0xFFFFFFFFL || cenSize >= 0xFFFFFFFFL) {
+            long end64 = position;
+            writeInt(ZIP64_ENDSIG);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(total);
+            writeLong(total);
+            writeLong(cenSize);
+            writeLong(cenOffset);
+
+            writeInt(ZIP64_LOCSIG);
+            writeInt(0);
+            writeLong(end64);
+            writeInt(1);
+        }
+
+        writeInt(RawZipEntry.ENDSIG);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(total, 0xFFFF));
+        writeShort(Math.min(total, 0xFFFF));
+        writeInt(Math.min(cenSize, 0xFFFFFFFFL));
+        writeInt(Math.min(cenOffset, 0xFFFFFFFFL));
+        writeShort(0);
+        flush();
+    }
+
+    public void close() throws IOException {
+        for (Pending p : pending) {
+            p.cancel();
+        }
+        pending.clear();
+        for (ConcurrentLinkedQueue<Deflater> pool : deflaters) {
+            Deflater d;
+            while ((d = pool.poll()) != null) {
+                d.end();
+            }
+        }
+        for (RandomAccessFile source : sources.values()) {
+            try {
+                source.close();
+            } catch (IOException ignore) {
+            }
+        }
+        sources.clear();
+        file.close();
+    }
+
+    /**
+     * A jar entry waiting for its turn to be written.
+     */
+    private static abstract class Pending {
+        public boolean isReady() {
+            return true;
+        }
+
+        abstract public void write() throws IOException;
+
+        public void cancel() {
+        }
+    }
+
+    /**
+     * The result of deflating an entry into memory.
+     */
+    static final class Deflated {
+        final byte[] data;
+        final int length;
+        final long crc;
+        final long size;
+
+        Deflated(byte[] data, int length, long crc, long size) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    static Deflated deflate(InputStream is, Deflater deflater) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] in = new byte[8 * 1024];
+        byte[] out = new byte[8 * 1024];
+        int length = 0;
+        long size = 0;
+        int c;
+        while ((c = is.read(in)) >= 0) {
+            if (c > 0) {
+                crc.update(in, 0, c);
+                size += c;
+                deflater.setInput(in, 0, c);
+                while (!deflater.needsInput()) {
+                    out = ensureCapacity(out, length);
+                    length += deflater.deflate(out, length, out.length - length);
+                }
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            out = ensureCapacity(out, length);
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return new Deflated(out, length, crc.getValue(), size);
+    }
+
+    private static byte[] ensureCapacity(byte[] data, int length) {
+        if (length < data.length) {
+            return data;
+        }
+        byte[] rc = new byte[data.length * 2];
+        System.arraycopy(data, 0, rc, 0, length);
+        return rc;
+    }
+
+    private Deflater acquireDeflater(int level) {
+        Deflater rc = deflaters.get(level + 1).poll();
+        if (rc == null) {
+            rc = new Deflater(level, true);
+        }
+        rc.reset();
+        return rc;
+    }
+
+    private void releaseDeflater(int level, Deflater deflater) {
+        deflaters.get(level + 1).offer(deflater);
+    }
+
+    private void enqueue(Pending p) throws IOException {
+        if (executor == null) {
+            p.write();
+            return;
+        }
+        pending.add(p);
+        while (!pending.isEmpty() && (pending.size() > window || pending.getFirst().isReady())) {
+            pending.removeFirst().write();
+        }
+    }
+
+    private Record record(String name, int method, int flags) throws IOException {
+        Record record = new Record();
+        record.name = name.getBytes("UTF-8");
+        record.method = method;
+        record.flags = flags;
+        if (record.name.length != name.length()) {
+            record.flags |= FLAG_UTF8;
+        }
+        record.offset = position;
+        records.add(record);
+        return record;
+    }
+
+    private void writeLocalHeader(Record record) throws IOException {
+        boolean descriptor = (record.flags & FLAG_DATA_DESCRIPTOR) != 0;
+        writeInt(RawZipEntry.LOCSIG);
+        writeShort(versionNeeded(record, false));
+        writeShort(record.flags);
+        writeShort(record.method);
+        writeInt(record.dosTime);
+        writeInt(descriptor ? 0 : record.crc);
+        writeInt(descriptor ? 0 : record.compressedSize);
+        writeInt(descriptor ? 0 : record.size);
+        writeShort(record.name.length);
+        writeShort(0);
+        write(record.name, 0, record.name.length);
+    }
+
+    private static int versionNeeded(Record record, boolean zip64) {
+        if (zip64) {
+            return 45;
+        }
+        return record.method == RawZipEntry.DEFLATED ? 20 : 10;
+    }
+
+    private static void checkSize(Record record) throws IOException {
+        if (record.size >= 0xFFFFFFFFL || record.compressedSize >= 0xFFFFFFFFL) {
+            throw new IOException("Jar entry is too large: " + new String(record.name, "UTF-8"));
+        }
+    }
+
+    private void deflate(Deflater deflater) throws IOException {
+        int c = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+        if (c > 0) {
+            write(deflateBuffer, 0, c);
+        }
+    }
+
+    private void writeShort(int v) throws IOException {
+        if (count + 2 > buffer.length) {
+            flush();
+        }
+        buffer[count++] = (byte) v;
+        buffer[count++] = (byte) (v >>> 8);
+        position += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        writeShort((int) (v & 0xFFFF));
+        writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt(v & 0xFFFFFFFFL);
+        writeInt(v >>> 32);
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        if (count + len > buffer.length) {
+            flush();
+            if (len > buffer.length) {
+                file.write(b, off, len);
+                position += len;
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        position += len;
+    }
+
+    private static void putInt(byte[] b, int off, long v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private void flush() throws IOException {
+        if (count > 0) {
+            file.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    static long javaToDosTime(long time) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(time);
+        int year = c.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((c.get(Calendar.MONTH) + 1) << 21)
+                | (c.get(Calendar.DAY_OF_MONTH) << 16)
+                | (c.get(Calendar.HOUR_OF_DAY) << 11)
+                | (c.get(Calendar.MINUTE) << 5)
+                | (c.get(Calendar.SECOND) >> 1);
+    }
+
+}
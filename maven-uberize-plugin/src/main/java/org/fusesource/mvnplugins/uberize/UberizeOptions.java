@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize;
+
+import java.io.File;
+
+/**
+ * Tuning options for an uberize run.
+ */
+public class UberizeOptions {
+
+    private boolean lazyExtraction;
+    private boolean incremental;
+    private boolean backgroundCleanup;
+    private boolean keepHistory;
+    private File cacheDirectory;
+    private int extractThreads = 1;
+    private int compressThreads = 1;
+    private int shadeThreads = 1;
+    private int transformThreads = 1;
+    private int sourceSpillThreshold = 1000000;
+    private String stagingStore = StagingStore.DIRECTORY;
+    private CompressionPolicy compressionPolicy = CompressionPolicy.createDefault();
+
+    /**
+     * @return true if the source jar entries should only be extracted
+     * to the work directory when a transformer needs them as files.
+     */
+    public boolean isLazyExtraction() {
+        return lazyExtraction;
+    }
+
+    public void setLazyExtraction(boolean lazyExtraction) {
+        this.lazyExtraction = lazyExtraction;
+    }
+
+    /**
+     * @return true if the work directory of the previous run should be reused
+     * for the source jars and transformer configurations which did not change.
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * @return true if the work directory of the previous run should be renamed aside
+     * and deleted in the background while the new run proceeds.  Only applies to
+     * runs which are not incremental.
+     */
+    public boolean isBackgroundCleanup() {
+        return backgroundCleanup;
+    }
+
+    public void setBackgroundCleanup(boolean backgroundCleanup) {
+        this.backgroundCleanup = backgroundCleanup;
+    }
+
+    /**
+     * @return true if the uber entries should keep a reference to the entries
+     * they replaced, so the transformation history of a path can be inspected.
+     */
+    public boolean isKeepHistory() {
+        return keepHistory;
+    }
+
+    public void setKeepHistory(boolean keepHistory) {
+        this.keepHistory = keepHistory;
+    }
+
+    /**
+     * @return the directory where results which can be reused by other builds
+     * get cached, or null to disable the cache.
+     */
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return the number of threads used to extract or index the source
+     * jars.  A value less than 1 uses one thread per available processor.
+     */
+    public int getExtractThreads() {
+        return extractThreads;
+    }
+
+    public void setExtractThreads(int extractThreads) {
+        this.extractThreads = extractThreads;
+    }
+
+    /**
+     * @return the number of threads used to deflate the uber jar entries.
+     * A value less than 1 uses one thread per available processor.
+     */
+    public int getCompressThreads() {
+        return compressThreads;
+    }
+
+    public void setCompressThreads(int compressThreads) {
+        this.compressThreads = compressThreads;
+    }
+
+    /**
+     * @return the number of threads used to relocate classes.
+     * A value less than 1 uses one thread per available processor.
+     */
+    public int getShadeThreads() {
+        return shadeThreads;
+    }
+
+    public void setShadeThreads(int shadeThreads) {
+        this.shadeThreads = shadeThreads;
+    }
+
+    /**
+     * @return the number of threads used to apply the transformers which are not
+     * interested in any of the same entries.  A value less than 1 uses one thread
+     * per available processor.
+     */
+    public int getTransformThreads() {
+        return transformThreads;
+    }
+
+    public void setTransformThreads(int transformThreads) {
+        this.transformThreads = transformThreads;
+    }
+
+    /**
+     * @return the number of jar entry sources kept on the heap, the details of the
+     * sources past this number are held in a disk backed index in the work directory.
+     * The uber entries themselves stay on the heap.  A negative value keeps all the
+     * sources on the heap.
+     */
+    public int getSourceSpillThreshold() {
+        return sourceSpillThreshold;
+    }
+
+    public void setSourceSpillThreshold(int sourceSpillThreshold) {
+        this.sourceSpillThreshold = sourceSpillThreshold;
+    }
+
+    /**
+     * @return where the files generated by the transformers are staged, one of
+     * {@link StagingStore#DIRECTORY}, {@link StagingStore#MEMORY} or {@link StagingStore#PACK}.
+     * The source jars are not extracted up front when they are not staged in the work directory.
+     */
+    public String getStagingStore() {
+        return stagingStore;
+    }
+
+    public void setStagingStore(String stagingStore) {
+        this.stagingStore = stagingStore;
+    }
+
+    /**
+     * @return decides which of the uber jar entries get stored and
+     * the deflate level used for the others.
+     */
+    public CompressionPolicy getCompressionPolicy() {
+        return compressionPolicy;
+    }
+
+    public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+        this.compressionPolicy = compressionPolicy;
+    }
+
+}
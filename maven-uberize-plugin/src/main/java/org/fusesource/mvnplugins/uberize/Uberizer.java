@@ -50,6 +50,21 @@ public interface Uberizer {
     void uberize(File workDir, Set sourceJars, File uberJar,
                  List<Filter> filters, List<Transformer> transformers) throws IOException;
 
+    /**
+     * Creates an uber jar from the source jars using the specified
+     * tuning options.
+     *
+     * @param workDir
+     * @param sourceJars
+     * @param uberJar
+     * @param filters
+     * @param transformers
+     * @param options
+     * @throws IOException
+     */
+    void uberize(File workDir, Set sourceJars, File uberJar,
+                 List<Filter> filters, List<Transformer> transformers, UberizeOptions options) throws IOException;
+
     /**
      * When a transformation can't aggregate multiple sources
      * for an entry.. this method asks the Uberizer to pick one source for it
@@ -61,6 +76,58 @@ public interface Uberizer {
      */
     File pickOneSource(TreeMap<String, UberEntry> tree, UberEntry entry) throws IOException;
 
+    /**
+     * Same as {@link #pickOneSource(TreeMap, UberEntry)}, the warning about the
+     * overlapping sources names the transformer.
+     *
+     * @param transformer the transformer asking for the pick
+     * @param tree
+     * @param entry
+     * @return
+     */
+    File pickOneSource(Transformer transformer, TreeMap<String, UberEntry> tree, UberEntry entry) throws IOException;
+
+    /**
+     * Finds where a source came from.  Jar entries are their own origin and the files
+     * transformers generated using {@link #recordOutput(File, String, File)} map back
+     * to the jar entry they were generated from.
+     *
+     * @param source
+     * @return the jar entry the source came from or null if it's not known.
+     */
+    JarEntryFile getOrigin(File source);
+
+    /**
+     * @return the options of the uberize run in progress.
+     */
+    UberizeOptions getOptions();
+
+    /**
+     * @return the store transformers should stage the files they generate in.
+     */
+    StagingStore getStagingStore();
+
+    /**
+     * Used by transformers to skip regenerating a file on incremental runs.
+     *
+     * @param workDir the transformer's work directory
+     * @param path the path of the generated file in the work directory
+     * @param source the source the file would be generated from
+     * @return the file generated by the previous run from the same unchanged source
+     * and transformer configuration, or null if it has to be generated again.
+     */
+    File reuseOutput(File workDir, String path, File source);
+
+    /**
+     * Records that a transformer generated a file from a source so that
+     * the next incremental run can reuse it.
+     *
+     * @param workDir the transformer's work directory
+     * @param path the path of the generated file in the work directory
+     * @param source the source the file was generated from
+     */
+    void recordOutput(File workDir, String path, File source);
+
     /**
      * Transformations which re-map classes should updated this map.  It's a map
      * of 'original class name' to 'new class name'.
@@ -19,10 +19,9 @@ package org.fusesource.mvnplugins.uberize.filter;
  * under the License.
  */
 
-import org.codehaus.plexus.util.SelectorUtils;
+import org.fusesource.mvnplugins.uberize.PathMatcher;
 
 import java.io.File;
-import java.util.Iterator;
 import java.util.Set;
 
 /**
@@ -37,11 +36,18 @@ public class SimpleFilter
 
     private Set excludes;
 
+    // Compiled up front since the filters are shared by the main and sources builds.
+    private final transient PathMatcher includeMatcher;
+
+    private final transient PathMatcher excludeMatcher;
+
     public SimpleFilter( File jar, Set includes, Set excludes )
     {
         this.jar = jar;
         this.includes = includes;
         this.excludes = excludes;
+        this.includeMatcher = new PathMatcher( includes );
+        this.excludeMatcher = new PathMatcher( excludes );
     }
 
     public boolean canFilter( File jar )
@@ -62,7 +68,7 @@ public class SimpleFilter
             return true;
         }
 
-        return matchPaths( includes, classFile );
+        return includeMatcher.matches( classFile );
     }
 
     private boolean isExcluded( String classFile )
@@ -72,21 +78,6 @@ public class SimpleFilter
             return false;
         }
 
-        return matchPaths( excludes, classFile );
-    }
-
-    private boolean matchPaths( Set patterns, String classFile )
-    {
-        for ( Iterator iterator = patterns.iterator(); iterator.hasNext(); )
-        {
-            String pattern = (String) iterator.next();
-
-            if ( SelectorUtils.matchPath( pattern, classFile ) )
-            {
-                return true;
-            }
-        }
-
-        return false;
+        return excludeMatcher.matches( classFile );
     }
 }
@@ -34,6 +34,10 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
@@ -49,9 +53,26 @@ import org.apache.maven.model.Exclusion;
 import org.apache.maven.model.Model;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.fusesource.mvnplugins.uberize.CompressionPolicy;
+import org.fusesource.mvnplugins.uberize.CompressionRule;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
+import org.fusesource.mvnplugins.uberize.StagingStore;
 import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.UberizeOptions;
 import org.fusesource.mvnplugins.uberize.Uberizer;
+import org.fusesource.mvnplugins.uberize.transformer.AddResource;
+import org.fusesource.mvnplugins.uberize.transformer.ApacheLicenseAgreggator;
+import org.fusesource.mvnplugins.uberize.transformer.ApacheNoticeAgreggator;
+import org.fusesource.mvnplugins.uberize.transformer.ClassShader;
+import org.fusesource.mvnplugins.uberize.transformer.ClassStage;
 import org.fusesource.mvnplugins.uberize.transformer.ManifestEditor;
+import org.fusesource.mvnplugins.uberize.transformer.PickResource;
+import org.fusesource.mvnplugins.uberize.transformer.PlexusComponents;
+import org.fusesource.mvnplugins.uberize.transformer.RemoveResource;
+import org.fusesource.mvnplugins.uberize.transformer.ServicesAppender;
+import org.fusesource.mvnplugins.uberize.transformer.StripDebugInfo;
+import org.fusesource.mvnplugins.uberize.transformer.TextAggregator;
+import org.fusesource.mvnplugins.uberize.transformer.XmlAppender;
 import org.fusesource.mvnplugins.uberize.mojo.ArchiveFilter;
 import org.fusesource.mvnplugins.uberize.mojo.ArtifactSet;
 import org.fusesource.mvnplugins.uberize.filter.SimpleFilter;
@@ -300,6 +321,137 @@ public class UberizeMojo
      */
     private String additionalScopes;
 
+    /**
+     * When true, the source jars are not extracted into the work directory up front.
+     * Jar entries are streamed straight from the source jars into the uber jar and
+     * only get extracted when a transformer needs to access them as files.
+     *
+     * @parameter expression="${lazyExtraction}" default-value="false"
+     */
+    private boolean lazyExtraction;
+
+    /**
+     * When true, the work directory is not cleaned between builds.  Source jars and
+     * transformer configurations are fingerprinted so the next build only extracts the
+     * jars which changed and reuses the classes relocated from unchanged jars.
+     *
+     * @parameter expression="${incremental}" default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * When true, the work directory of the previous build is renamed aside and deleted
+     * by a background thread while the new build runs, instead of being cleaned before
+     * the build starts.  The build waits for the deletion to finish before returning.
+     * Does not apply to incremental builds.
+     *
+     * @parameter expression="${backgroundCleanup}" default-value="false"
+     */
+    private boolean backgroundCleanup;
+
+    /**
+     * When true, each jar entry keeps a reference to the entry a transformer replaced
+     * so that the transformation history can be inspected.  It is disabled by default
+     * since it holds on to every version of the entries.
+     *
+     * @parameter expression="${keepHistory}" default-value="false"
+     */
+    private boolean keepHistory;
+
+    /**
+     * A directory where the classes relocated by the <code>ClassShader</code> get cached so
+     * that other builds relocating the same jar with the same relocations can reuse them.
+     *
+     * @parameter expression="${uberizeCacheDirectory}" default-value="${settings.localRepository}/.cache/maven-uberize-plugin"
+     */
+    private File cacheDirectory;
+
+    /**
+     * When true, the <code>cacheDirectory</code> is used.  Nothing ever gets evicted
+     * from the cache, so it has to be cleaned up by hand.
+     *
+     * @parameter expression="${uberizeCache}" default-value="false"
+     */
+    private boolean useCache;
+
+    /**
+     * The number of threads used to extract (or index when <code>lazyExtraction</code> is
+     * enabled) the source jars.  Set to 0 to use one thread per available processor.
+     * The uber jar contents do not depend on this setting.
+     *
+     * @parameter expression="${extractThreads}" default-value="0"
+     */
+    private int extractThreads;
+
+    /**
+     * The number of threads used to deflate the uber jar entries.  Set to 0 to use one
+     * thread per available processor.  The entries are still written in order, so the
+     * uber jar contents do not depend on this setting.
+     *
+     * @parameter expression="${compressThreads}" default-value="0"
+     */
+    private int compressThreads;
+
+    /**
+     * The number of threads the class shader uses to relocate classes.  Set to 0 to use
+     * one thread per available processor.  The uber jar contents do not depend on
+     * this setting.
+     *
+     * @parameter expression="${shadeThreads}" default-value="0"
+     */
+    private int shadeThreads;
+
+    /**
+     * The number of threads used to apply the configured transformers which are not
+     * interested in any of the same jar entries.  Set to 0 to use one thread per
+     * available processor.  The uber jar contents do not depend on this setting.
+     *
+     * @parameter expression="${transformThreads}" default-value="0"
+     */
+    private int transformThreads;
+
+    /**
+     * The number of jar entry sources for which details are kept on the heap.  The details
+     * of the sources past this number, their jar, name, CRC and size, are held in a memory
+     * mapped index in the work directory.  The tree of uber entries and their paths stays
+     * on the heap.  Set to -1 to keep all of them on the heap.
+     *
+     * @parameter expression="${sourceSpillThreshold}" default-value="1000000"
+     */
+    private int sourceSpillThreshold;
+
+    /**
+     * Where the files generated by the transformers get staged.  <code>directory</code>
+     * writes them to the work directory, <code>memory</code> keeps them on the heap and
+     * <code>pack</code> appends them to a single file in the work directory, which avoids
+     * creating a file per shaded class.  The source jars only get extracted up front
+     * with the <code>directory</code> store.
+     *
+     * @parameter expression="${stagingStore}" default-value="directory"
+     */
+    private String stagingStore;
+
+    /**
+     * The compression preset of the uber jar.  <code>default</code> stores the entries
+     * which are already compressed (jars, zips, images...) and deflates the others,
+     * <code>fast</code> stores every entry which is handy for development builds.
+     * Entries of the source jars are copied without recompressing them when they are
+     * already compressed the way the preset asks for.
+     *
+     * @parameter expression="${compression}" default-value="default"
+     */
+    private String compression;
+
+    /**
+     * Compression rules which take precedence over the <code>compression</code> preset.
+     * Each rule has a set of include/exclude path patterns and either stores the
+     * matching entries or deflates them at the configured <code>level</code> (0-9).
+     * The first matching rule wins.
+     *
+     * @parameter
+     */
+    private CompressionRule[] compressionRules;
+
     /** @throws MojoExecutionException  */
     public void execute()
         throws MojoExecutionException
@@ -307,7 +459,7 @@ public class UberizeMojo
         Set<String> additionalScopes = getAdditionalScopes();
         Set artifacts = new LinkedHashSet();
         Set artifactIds = new LinkedHashSet();
-        Set sourceArtifacts = new LinkedHashSet();
+        final Set sourceArtifacts = new LinkedHashSet();
 
         if ( project.getArtifact().getFile() == null )
         {
@@ -364,20 +516,57 @@ public class UberizeMojo
         }
 
         File outputJar = uberArtifactFileWithClassifier();
-        File sourcesJar = uberSourceArtifactFileWithClassifier();
+        final File sourcesJar = uberSourceArtifactFileWithClassifier();
 
         // Now add our extra resources
         try
         {
-            List filters = getFilters();
+            final List filters = getFilters();
 
-            List<Transformer> transformers = getTransformers();
+            final List<Transformer> transformers = getTransformers();
 
-            uberizer.uberize(workDirectory, artifacts, outputJar, filters, transformers);
+            final UberizeOptions options = getOptions();
 
-            if ( createSourcesJar )
+            // Both uber jars share the configured transformer instances, so the sources jar
+            // is only built concurrently when all of them are known to be thread safe.
+            // It then needs its own work directory.
+            ExecutorService executor = null;
+            Future<Object> sourcesBuild = null;
+            if ( createSourcesJar && isThreadSafe( transformers ) )
+            {
+                final File sourcesWorkDirectory = new File( workDirectory.getPath() + "-sources" );
+                executor = Executors.newSingleThreadExecutor();
+                sourcesBuild = executor.submit( new Callable<Object>()
+                {
+                    public Object call() throws IOException
+                    {
+                        uberizer.uberize( sourcesWorkDirectory, sourceArtifacts, sourcesJar, filters, transformers, options );
+                        return null;
+                    }
+                } );
+            }
+
+            try
+            {
+                uberizer.uberize(workDirectory, artifacts, outputJar, filters, transformers, options);
+
+                if ( sourcesBuild != null )
+                {
+                    DefaultUberizer.get( sourcesBuild );
+                }
+                else if ( createSourcesJar )
+                {
+                    // Incremental builds keep a work directory per uber jar so they don't invalidate each other.
+                    File sourcesWorkDirectory = incremental ? new File( workDirectory.getPath() + "-sources" ) : workDirectory;
+                    uberizer.uberize(sourcesWorkDirectory, sourceArtifacts, sourcesJar, filters, transformers, options);
+                }
+            }
+            finally
             {
-                uberizer.uberize(workDirectory, sourceArtifacts, sourcesJar, filters, transformers);
+                if ( executor != null )
+                {
+                    executor.shutdownNow();
+                }
             }
 
             if ( uberArtifactAttached )
@@ -593,6 +782,48 @@ public class UberizeMojo
         return Collections.EMPTY_SET;
     }
 
+    private UberizeOptions getOptions()
+    {
+        UberizeOptions options = new UberizeOptions();
+        options.setLazyExtraction( lazyExtraction );
+        options.setIncremental( incremental );
+        options.setBackgroundCleanup( backgroundCleanup );
+        options.setKeepHistory( keepHistory );
+        options.setCacheDirectory( useCache ? cacheDirectory : null );
+        options.setExtractThreads( extractThreads );
+        options.setCompressThreads( compressThreads );
+        options.setShadeThreads( shadeThreads );
+        options.setTransformThreads( transformThreads );
+        options.setSourceSpillThreshold( sourceSpillThreshold );
+
+        if ( stagingStore != null && !StagingStore.DIRECTORY.equals( stagingStore )
+            && !StagingStore.MEMORY.equals( stagingStore ) && !StagingStore.PACK.equals( stagingStore ) )
+        {
+            throw new IllegalArgumentException( "Unknown staging store: " + stagingStore );
+        }
+        options.setStagingStore( stagingStore );
+
+        CompressionPolicy policy;
+        if ( compression == null || "default".equals( compression ) )
+        {
+            policy = CompressionPolicy.createDefault();
+        }
+        else if ( "fast".equals( compression ) )
+        {
+            policy = CompressionPolicy.createFast();
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown compression preset: " + compression );
+        }
+        if ( compressionRules != null )
+        {
+            policy.addFirst( Arrays.asList( compressionRules ) );
+        }
+        options.setCompressionPolicy( policy );
+        return options;
+    }
+
     private List<Transformer> getTransformers()
     {
         final List<Transformer> list = transformers == null? Collections.EMPTY_LIST : Arrays.asList(transformers);
@@ -603,6 +834,38 @@ public class UberizeMojo
         return rc;
     }
 
+    /**
+     * The bundled transformers and class stages only read their configuration
+     * and guard their lazily compiled matchers, other implementations could keep
+     * state while they run.
+     */
+    private static final Set<Class> THREAD_SAFE_TYPES = new HashSet<Class>( Arrays.asList( new Class[]{
+        AddResource.class, ApacheLicenseAgreggator.class, ApacheNoticeAgreggator.class, ClassShader.class,
+        ManifestEditor.class, PickResource.class, PlexusComponents.class, RemoveResource.class,
+        ServicesAppender.class, TextAggregator.class, XmlAppender.class, StripDebugInfo.class } ) );
+
+    private static boolean isThreadSafe( List<Transformer> transformers )
+    {
+        for ( Transformer transformer : transformers )
+        {
+            if ( !THREAD_SAFE_TYPES.contains( transformer.getClass() ) )
+            {
+                return false;
+            }
+            if ( transformer instanceof ClassShader && ( (ClassShader) transformer ).stages != null )
+            {
+                for ( ClassStage stage : ( (ClassShader) transformer ).stages )
+                {
+                    if ( !THREAD_SAFE_TYPES.contains( stage.getClass() ) )
+                    {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     private boolean containsTransformer(ArrayList<Transformer> rc, Class clazz) {
         for (Transformer transformer : rc) {
             if( clazz.isAssignableFrom(transformer.getClass()) ) {
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.relocation;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Replaces class names in text with their relocated names.  A class name is only
+ * replaced when it is not part of a longer name, so it must be surrounded by
+ * characters which can not be part of a class name: anything other than letters,
+ * digits, '.', '$' and '_'.
+ * <p>
+ * All the class names are compiled into a single trie.  Since a class name can only
+ * start after such a boundary character, the text is rewritten in one pass by only
+ * walking the trie from those positions and replacing the longest bounded match.
+ */
+public class ClassNameRewriter
+{
+    private final Node root = new Node();
+
+    private int maxLength;
+
+    public ClassNameRewriter( Map<String, String> relocations )
+    {
+        for ( Iterator<Map.Entry<String, String>> i = relocations.entrySet().iterator(); i.hasNext(); )
+        {
+            Map.Entry<String, String> entry = i.next();
+            String name = entry.getKey();
+            if ( name.length() == 0 )
+            {
+                continue;
+            }
+            Node node = root;
+            for ( int j = 0; j < name.length(); j++ )
+            {
+                node = node.add( name.charAt( j ) );
+            }
+            node.value = entry.getValue();
+            maxLength = Math.max( maxLength, name.length() );
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return maxLength == 0;
+    }
+
+    public String rewrite( String content )
+        throws IOException
+    {
+        StringWriter out = new StringWriter( content.length() );
+        rewrite( new StringReader( content ), out );
+        return out.toString();
+    }
+
+    /**
+     * Copies the reader to the writer replacing the class names.
+     */
+    public void rewrite( Reader in, Writer out )
+        throws IOException
+    {
+        // Keep enough look ahead to check the character following the longest name.
+        char[] buf = new char[Math.max( 1024 * 8, ( maxLength + 1 ) * 2 )];
+        int start = 0;
+        int end = 0;
+        int unwritten = 0;
+        boolean eof = false;
+        boolean boundary = true;
+        while ( true )
+        {
+            if ( !eof && end - start <= maxLength )
+            {
+                out.write( buf, unwritten, start - unwritten );
+                System.arraycopy( buf, start, buf, 0, end - start );
+                end -= start;
+                start = 0;
+                unwritten = 0;
+                int count = in.read( buf, end, buf.length - end );
+                if ( count < 0 )
+                {
+                    eof = true;
+                }
+                else
+                {
+                    end += count;
+                }
+                continue;
+            }
+            if ( start == end )
+            {
+                break;
+            }
+
+            Node match = null;
+            int matchEnd = 0;
+            if ( boundary )
+            {
+                Node node = root;
+                for ( int i = start; i < end; i++ )
+                {
+                    node = node.get( buf[i] );
+                    if ( node == null )
+                    {
+                        break;
+                    }
+                    if ( node.value != null && ( i + 1 == end || !isClassNameChar( buf[i + 1] ) ) )
+                    {
+                        match = node;
+                        matchEnd = i + 1;
+                    }
+                }
+            }
+
+            if ( match != null )
+            {
+                out.write( buf, unwritten, start - unwritten );
+                out.write( match.value );
+                boundary = !isClassNameChar( buf[matchEnd - 1] );
+                start = matchEnd;
+                unwritten = start;
+            }
+            else
+            {
+                boundary = !isClassNameChar( buf[start] );
+                start++;
+            }
+        }
+        out.write( buf, unwritten, start - unwritten );
+        out.flush();
+    }
+
+    static boolean isClassNameChar( char c )
+    {
+        return Character.isLetter( c ) || Character.isDigit( c ) || c == '.' || c == '$' || c == '_';
+    }
+
+    private static class Node
+    {
+        private char[] chars = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private String value;
+
+        Node get( char c )
+        {
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                if ( chars[i] == c )
+                {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node add( char c )
+        {
+            Node node = get( c );
+            if ( node == null )
+            {
+                node = new Node();
+                char[] newChars = new char[chars.length + 1];
+                System.arraycopy( chars, 0, newChars, 0, chars.length );
+                newChars[chars.length] = c;
+                Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy( children, 0, newChildren, 0, children.length );
+                newChildren[children.length] = node;
+                chars = newChars;
+                children = newChildren;
+            }
+            return node;
+        }
+    }
+
+}
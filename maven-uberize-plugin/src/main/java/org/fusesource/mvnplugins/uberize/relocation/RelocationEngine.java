@@ -0,0 +1,423 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.relocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a list of relocators the same way looping over them and using the
+ * first one which can relocate a name does.  The package patterns of the
+ * {@link SimpleRelocator}s are compiled into a prefix trie so only the
+ * relocators whose pattern prefixes a name get checked, the package prefix
+ * is replaced without using a regular expression and the mapped names are
+ * kept in a bounded cache.
+ */
+public class RelocationEngine
+{
+    public static final int DEFAULT_CACHE_SIZE = 1024 * 16;
+
+    private final Relocator[] relocators;
+
+    private final boolean[] literal;
+
+    private final int[] unindexed;
+
+    private final Node root = new Node();
+
+    private final Cache paths;
+
+    private final Cache classes;
+
+    private final Cache values;
+
+    public RelocationEngine( List<Relocator> relocators )
+    {
+        this( relocators, DEFAULT_CACHE_SIZE );
+    }
+
+    public RelocationEngine( List<Relocator> relocators, int cacheSize )
+    {
+        this.relocators = relocators.toArray( new Relocator[relocators.size()] );
+        this.literal = new boolean[this.relocators.length];
+        ArrayList<Integer> others = new ArrayList<Integer>();
+        for ( int i = 0; i < this.relocators.length; i++ )
+        {
+            Relocator r = this.relocators[i];
+            if ( r instanceof SimpleRelocator )
+            {
+                SimpleRelocator sr = (SimpleRelocator) r;
+                root.add( sr.getPathPattern(), i );
+                literal[i] = isLiteral( sr );
+            }
+            else
+            {
+                // We don't know which names these can relocate so they always get checked.
+                others.add( i );
+            }
+        }
+        this.unindexed = new int[others.size()];
+        for ( int i = 0; i < unindexed.length; i++ )
+        {
+            unindexed[i] = others.get( i );
+        }
+        this.paths = new Cache( cacheSize );
+        this.classes = new Cache( cacheSize );
+        this.values = new Cache( cacheSize );
+    }
+
+    public boolean isEmpty()
+    {
+        return relocators.length == 0;
+    }
+
+    /**
+     * @return the path relocated by the first relocator which can relocate it,
+     * or the path itself.
+     */
+    public String relocatePath( String path )
+    {
+        String value = paths.get( path );
+        if ( value == null )
+        {
+            value = path;
+            int[] candidates = candidates( stripClass( path ), false );
+            for ( int i = 0; i < candidates.length; i++ )
+            {
+                int index = candidates[i];
+                if ( relocators[index].canRelocatePath( path ) )
+                {
+                    value = relocatePath( index, path );
+                    break;
+                }
+            }
+            paths.put( path, value );
+        }
+        return value.equals( path ) ? path : value;
+    }
+
+    /**
+     * @return the class name relocated by the first relocator which can relocate it,
+     * or the class name itself.
+     */
+    public String relocateClass( String clazz )
+    {
+        String value = classes.get( clazz );
+        if ( value == null )
+        {
+            value = clazz;
+            int[] candidates = candidates( clazz, true );
+            for ( int i = 0; i < candidates.length; i++ )
+            {
+                int index = candidates[i];
+                if ( relocators[index].canRelocateClass( clazz ) )
+                {
+                    value = relocateClass( index, clazz );
+                    break;
+                }
+            }
+            classes.put( clazz, value );
+        }
+        return value.equals( clazz ) ? clazz : value;
+    }
+
+    /**
+     * Relocates a string constant which can either be a class name, a path or an
+     * array descriptor.  Each relocator gets to try all the forms before the next
+     * relocator gets checked.
+     */
+    public String relocateValue( String name )
+    {
+        String value = values.get( name );
+        if ( value == null )
+        {
+            if ( name.length() > 0 && name.charAt( 0 ) == '[' )
+            {
+                value = relocateArrayValue( name );
+            }
+            else
+            {
+                value = name;
+                int[] candidates = merge( candidates( name, true ), candidates( stripClass( name ), false ) );
+                for ( int i = 0; i < candidates.length; i++ )
+                {
+                    int index = candidates[i];
+                    Relocator r = relocators[index];
+                    if ( r.canRelocateClass( name ) )
+                    {
+                        value = relocateClass( index, name );
+                        break;
+                    }
+                    else if ( r.canRelocatePath( name ) )
+                    {
+                        value = relocatePath( index, name );
+                        break;
+                    }
+                }
+            }
+            values.put( name, value );
+        }
+        return value.equals( name ) ? name : value;
+    }
+
+    /**
+     * Array descriptors are rare in string constants, so they are relocated by
+     * checking all the relocators in order.  Only the first relocator gets to
+     * relocate the element type, the following ones see the unwrapped name.
+     */
+    private String relocateArrayValue( String name )
+    {
+        String value = name;
+        for ( int index = 0; index < relocators.length; index++ )
+        {
+            Relocator r = relocators[index];
+            if ( r.canRelocateClass( name ) )
+            {
+                return relocateClass( index, name );
+            }
+            else if ( r.canRelocatePath( name ) )
+            {
+                return relocatePath( index, name );
+            }
+
+            if ( name.length() > 0 && name.charAt( 0 ) == '[' )
+            {
+                int count = 0;
+                while ( name.length() > 0 && name.charAt( 0 ) == '[' )
+                {
+                    name = name.substring( 1 );
+                    ++count;
+                }
+
+                if ( name.length() > 0 && name.charAt( 0 ) == 'L' && name.charAt( name.length() - 1 ) == ';' )
+                {
+                    name = name.substring( 1, name.length() - 1 );
+
+                    String element = null;
+                    if ( r.canRelocatePath( name ) )
+                    {
+                        element = relocatePath( index, name );
+                    }
+                    else if ( r.canRelocateClass( name ) )
+                    {
+                        element = relocateClass( index, name );
+                    }
+                    if ( element != null )
+                    {
+                        StringBuilder sb = new StringBuilder( element.length() + count + 2 );
+                        while ( count-- > 0 )
+                        {
+                            sb.append( '[' );
+                        }
+                        return sb.append( 'L' ).append( element ).append( ';' ).toString();
+                    }
+                }
+            }
+        }
+        return value;
+    }
+
+    private String relocatePath( int index, String path )
+    {
+        if ( literal[index] )
+        {
+            SimpleRelocator r = (SimpleRelocator) relocators[index];
+            return r.getShadedPathPattern() + path.substring( r.getPathPattern().length() );
+        }
+        return relocators[index].relocatePath( path );
+    }
+
+    private String relocateClass( int index, String clazz )
+    {
+        if ( literal[index] )
+        {
+            SimpleRelocator r = (SimpleRelocator) relocators[index];
+            return r.getShadedPattern() + clazz.substring( r.getPattern().length() );
+        }
+        return relocators[index].relocateClass( clazz );
+    }
+
+    /**
+     * A SimpleRelocator uses String.replaceFirst, but since it only relocates names starting
+     * with the pattern, a plain prefix replacement gives the same result as long as the
+     * pattern has no regex constructs other than '.' and the replacement no group references.
+     */
+    private static boolean isLiteral( SimpleRelocator r )
+    {
+        String pattern = r.getPattern();
+        for ( int i = 0; i < pattern.length(); i++ )
+        {
+            if ( "\\[](){}*+?^$|".indexOf( pattern.charAt( i ) ) >= 0 )
+            {
+                return false;
+            }
+        }
+        return r.getShadedPattern().indexOf( '$' ) < 0 && r.getShadedPattern().indexOf( '\\' ) < 0
+            && r.getShadedPathPattern().indexOf( '$' ) < 0 && r.getShadedPathPattern().indexOf( '\\' ) < 0;
+    }
+
+    private static String stripClass( String path )
+    {
+        return path.endsWith( ".class" ) ? path.substring( 0, path.length() - 6 ) : path;
+    }
+
+    /**
+     * @return the indexes of the relocators which could relocate the name in ascending order.
+     */
+    private int[] candidates( String name, boolean className )
+    {
+        if ( className && name.indexOf( '/' ) >= 0 )
+        {
+            // only relocators we don't know can relocate these.
+            return unindexed;
+        }
+        int[] rc = unindexed;
+        Node node = root;
+        for ( int i = 0; ; i++ )
+        {
+            if ( node.relocators != null )
+            {
+                rc = merge( rc, node.relocators );
+            }
+            if ( i == name.length() )
+            {
+                break;
+            }
+            char c = name.charAt( i );
+            if ( className && c == '.' )
+            {
+                // class names are matched in their path form.
+                c = '/';
+            }
+            node = node.get( c );
+            if ( node == null )
+            {
+                break;
+            }
+        }
+        return rc;
+    }
+
+    private static int[] merge( int[] a, int[] b )
+    {
+        if ( a.length == 0 )
+        {
+            return b;
+        }
+        if ( b.length == 0 )
+        {
+            return a;
+        }
+        int[] rc = new int[a.length + b.length];
+        System.arraycopy( a, 0, rc, 0, a.length );
+        System.arraycopy( b, 0, rc, a.length, b.length );
+        Arrays.sort( rc );
+        return rc;
+    }
+
+    private static class Node
+    {
+        private char[] chars = new char[0];
+
+        private Node[] children = new Node[0];
+
+        private int[] relocators;
+
+        Node get( char c )
+        {
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                if ( chars[i] == c )
+                {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void add( String key, int relocator )
+        {
+            Node node = this;
+            for ( int i = 0; i < key.length(); i++ )
+            {
+                char c = key.charAt( i );
+                Node next = node.get( c );
+                if ( next == null )
+                {
+                    next = new Node();
+                    node.chars = append( node.chars, c );
+                    Node[] children = new Node[node.children.length + 1];
+                    System.arraycopy( node.children, 0, children, 0, node.children.length );
+                    children[children.length - 1] = next;
+                    node.children = children;
+                }
+                node = next;
+            }
+            if ( node.relocators == null )
+            {
+                node.relocators = new int[] { relocator };
+            }
+            else
+            {
+                node.relocators = merge( node.relocators, new int[] { relocator } );
+            }
+        }
+
+        private static char[] append( char[] chars, char c )
+        {
+            char[] rc = new char[chars.length + 1];
+            System.arraycopy( chars, 0, rc, 0, chars.length );
+            rc[chars.length] = c;
+            return rc;
+        }
+    }
+
+    /**
+     * A least recently used cache of mapped names.
+     */
+    private static class Cache
+    {
+        private final LinkedHashMap<String, String> map;
+
+        Cache( final int size )
+        {
+            map = new LinkedHashMap<String, String>( 16, 0.75f, true )
+            {
+                protected boolean removeEldestEntry( Map.Entry<String, String> eldest )
+                {
+                    return size() > size;
+                }
+            };
+        }
+
+        synchronized String get( String key )
+        {
+            return map.get( key );
+        }
+
+        synchronized void put( String key, String value )
+        {
+            map.put( key, value );
+        }
+    }
+
+}
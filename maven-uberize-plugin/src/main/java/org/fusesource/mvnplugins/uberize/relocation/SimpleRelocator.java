@@ -24,7 +24,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
-import org.codehaus.plexus.util.SelectorUtils;
+import org.fusesource.mvnplugins.uberize.PathMatcher;
 
 /**                           3
  * @author Jason van Zyl
@@ -38,6 +38,7 @@ public class SimpleRelocator
     private String shadedPattern;
     private String shadedPathPattern;
     private Set excludes;
+    private transient PathMatcher excludeMatcher;
 
     public SimpleRelocator( String patt, String shadedPattern, List excludes )
     {
@@ -72,6 +73,7 @@ public class SimpleRelocator
                     this.excludes.add( packageExclude );
                 }
             }
+            this.excludeMatcher = new PathMatcher( this.excludes );
         }
     }
 
@@ -81,20 +83,12 @@ public class SimpleRelocator
         {
             path = path.substring( 0, path.length() - 6 );
         }
-        if ( excludes != null )
+        if ( !path.startsWith( pathPattern ) )
         {
-            for ( Iterator i = excludes.iterator(); i.hasNext(); )
-            {
-                String exclude = (String) i.next();
-
-                if ( SelectorUtils.matchPath( exclude, path, true ) )
-                {
-                    return false;
-                }
-            }
+            return false;
         }
 
-        return path.startsWith( pathPattern );
+        return excludeMatcher == null || !excludeMatcher.matches( path );
     }
 
     public boolean canRelocateClass( String clazz )
@@ -111,4 +105,24 @@ public class SimpleRelocator
     {
         return clazz.replaceFirst( pattern, shadedPattern );
     }
+
+    String getPattern()
+    {
+        return pattern;
+    }
+
+    String getPathPattern()
+    {
+        return pathPattern;
+    }
+
+    String getShadedPattern()
+    {
+        return shadedPattern;
+    }
+
+    String getShadedPathPattern()
+    {
+        return shadedPathPattern;
+    }
 }
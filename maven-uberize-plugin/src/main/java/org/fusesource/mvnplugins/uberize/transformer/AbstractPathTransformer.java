@@ -1,9 +1,8 @@
 package org.fusesource.mvnplugins.uberize.transformer;
 
 import org.fusesource.mvnplugins.uberize.UberEntry;
-import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.Uberizer;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.EntryTransformer;
 
 import java.io.File;
 import java.io.IOException;
@@ -36,29 +35,29 @@ import java.util.Map.Entry;
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-abstract public class AbstractPathTransformer extends Resources implements Transformer
+abstract public class AbstractPathTransformer extends Resources implements EntryTransformer
 {
 
     public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
         // process all the entries that match.
-        // this can be probably optimized so we don't iterate through all the entries to find matches.
-        for (UberEntry uberEntry : new ArrayList<UberEntry>(uberEntries.values())) {
-            if( uberEntry.getSources().isEmpty() ) {
+        for (UberEntry uberEntry : select(uberEntries)) {
+            if( uberEntry.getSourceList().isEmpty() ) {
                 continue;
             }
-            final boolean match = matches(uberEntry.getPath());
-            if (match) {
-                File target = DefaultUberizer.prepareFile(workDir, uberEntry.getPath());
-                UberEntry modEntry = process(uberizer, uberEntry, target);
-                if( modEntry !=null ) {
-                    uberEntries.put(uberEntry.getPath(), modEntry);
-                } else {
-                    uberEntries.remove(uberEntry.getPath());
-                }
+            UberEntry modEntry = transform(uberizer, workDir, uberEntry);
+            if( modEntry !=null ) {
+                uberEntries.put(uberEntry.getPath(), modEntry);
+            } else {
+                uberEntries.remove(uberEntry.getPath());
             }
         }
     }
 
+    public UberEntry transform(Uberizer uberizer, File workDir, UberEntry entry) throws IOException {
+        File target = uberizer.getStagingStore().prepare(workDir, entry.getPath());
+        return process(uberizer, entry, target);
+    }
+
     abstract protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException;
 
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.transformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.TreeMap;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.BufferedSource;
+import org.fusesource.mvnplugins.uberize.EntryTransformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
+import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.Uberizer;
+
+/**
+ * Base class for transformers which merge the sources of the matching entries
+ * into new content.  The sources are read as streams using
+ * {@link org.fusesource.mvnplugins.uberize.DefaultUberizer#openStream(File)} and the
+ * merged content is written to a {@link BufferedSource}, so neither the sources nor
+ * the result need to be written to the work directory.
+ */
+abstract public class AbstractStreamTransformer extends Resources implements LazySourceTransformer, EntryTransformer {
+
+    public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
+        for (UberEntry uberEntry : getCandidates(uberEntries)) {
+            if( uberEntry.getSourceList().isEmpty() ) {
+                continue;
+            }
+            uberEntries.put(uberEntry.getPath(), transform(uberizer, workDir, uberEntry));
+        }
+    }
+
+    public UberEntry transform(Uberizer uberizer, File workDir, UberEntry entry) throws IOException {
+        BufferedSource target = new BufferedSource(uberizer.getStagingStore(), workDir, entry.getPath());
+        OutputStream out = target.openOutputStream();
+        try {
+            merge(uberizer, entry, out);
+        } finally {
+            IOUtil.close(out);
+        }
+        return new UberEntry(entry).addSource(target);
+    }
+
+    /**
+     * @return the entries to merge, defaults to the entries matching the
+     * configured includes and excludes.
+     */
+    protected List<UberEntry> getCandidates(TreeMap<String, UberEntry> uberEntries) {
+        return select(uberEntries);
+    }
+
+    /**
+     * Writes the merged content of the entry's sources.
+     */
+    abstract protected void merge(Uberizer uberizer, UberEntry entry, OutputStream out) throws IOException;
+
+}
@@ -23,11 +23,12 @@ import java.io.IOException;
 import java.io.File;
 import java.util.TreeMap;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 
 import org.fusesource.mvnplugins.uberize.Transformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
-import org.fusesource.mvnplugins.uberize.DefaultUberizer;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
 /**
@@ -38,13 +39,13 @@ import org.fusesource.mvnplugins.uberize.Uberizer;
 abstract public class AbstractTransformer implements Transformer
 {
     public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
-        for (UberEntry entry : new ArrayList<UberEntry>(uberEntries.values())) {
-            if( entry.getSources().isEmpty() ) {
+        for (UberEntry entry : getCandidates(uberEntries)) {
+            if( entry.getSourceList().isEmpty() ) {
                 continue;
             }
             String entryPath = entry.getPath();
             if (matches(entryPath)) {
-                File target = DefaultUberizer.prepareFile(workDir, entryPath);
+                File target = uberizer.getStagingStore().prepare(workDir, entryPath);
                 UberEntry modEntry = process(uberizer, entry, target);
                 if( modEntry!=null ) {
                     uberEntries.put(entryPath, modEntry);
@@ -55,6 +56,14 @@ abstract public class AbstractTransformer implements Transformer
         }
     }
 
+    /**
+     * @return the entries which could match, subclasses should narrow it
+     * down using the {@link UberEntryTree} lookups when they can.
+     */
+    protected List<UberEntry> getCandidates(TreeMap<String, UberEntry> uberEntries) {
+        return new ArrayList<UberEntry>(uberEntries.values());
+    }
+
     abstract protected boolean matches(String entryPath);
 
     abstract protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException;
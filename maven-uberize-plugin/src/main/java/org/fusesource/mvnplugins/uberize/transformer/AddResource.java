@@ -24,7 +24,7 @@ import java.io.IOException;
 import java.util.TreeMap;
 
 import org.fusesource.mvnplugins.uberize.UberEntry;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
 /**
@@ -33,7 +33,7 @@ import org.fusesource.mvnplugins.uberize.Uberizer;
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class AddResource implements Transformer {
+public class AddResource implements LazySourceTransformer {
 
     String path;
     File file;
@@ -42,8 +42,8 @@ public class AddResource implements Transformer {
         if( file!=null && file.exists() && path!=null ) {
             final UberEntry uberEntry = uberEntries.get(path);
             UberEntry modEntry = new UberEntry(path, uberEntry);
-            modEntry.getSources().add(file);
-            modEntry.getSources().addAll(uberEntry.getSources());
+            modEntry.getSourceList().add(file);
+            modEntry.getSourceList().addAll(uberEntry.getSourceList());
             uberEntries.put(path, modEntry);
         }
     }
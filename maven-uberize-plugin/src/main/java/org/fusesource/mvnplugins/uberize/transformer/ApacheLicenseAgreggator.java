@@ -19,22 +19,22 @@ package org.fusesource.mvnplugins.uberize.transformer;
  * under the License.
  */
 
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
 import java.io.IOException;
 import java.io.File;
 import java.util.TreeMap;
 import java.util.ArrayList;
-import java.util.Map.Entry;
 
 /**
  * Prevents duplicate copies of the license
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class ApacheLicenseAgreggator implements Transformer {
+public class ApacheLicenseAgreggator implements LazySourceTransformer {
 
     private static final String LICENSE_PATH = "META-INF/LICENSE";
     private static final String LICENSE_TXT_PATH = "META-INF/LICENSE.txt";
@@ -42,13 +42,11 @@ public class ApacheLicenseAgreggator implements Transformer {
 
     public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
         ArrayList<UberEntry> matches = new ArrayList<UberEntry>();
-        for (Entry<String, UberEntry> entry : uberEntries.entrySet()) {
-            String resource = entry.getKey();
-            if (matches(resource)) {
-                for (File file : entry.getValue().getSources()) {
-                    //TODO: implement
-                }
-                matches.add(entry.getValue());
+        matches.addAll(UberEntryTree.equalsIgnoreCase(uberEntries, LICENSE_PATH));
+        matches.addAll(UberEntryTree.equalsIgnoreCase(uberEntries, LICENSE_TXT_PATH));
+        for (UberEntry entry : matches) {
+            for (File file : entry.getSourceList()) {
+                //TODO: implement
             }
         }
     }
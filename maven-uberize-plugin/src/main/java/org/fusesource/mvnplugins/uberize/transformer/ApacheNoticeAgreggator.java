@@ -20,28 +20,30 @@ package org.fusesource.mvnplugins.uberize.transformer;
  */
 
 import org.fusesource.mvnplugins.uberize.DefaultUberizer;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 import org.fusesource.mvnplugins.uberize.Uberizer;
+import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.StringUtils;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.ArrayList;
@@ -49,7 +51,7 @@ import java.util.ArrayList;
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class ApacheNoticeAgreggator implements Transformer {
+public class ApacheNoticeAgreggator implements LazySourceTransformer {
 
     private static final String NOTICE_PATH = "META-INF/NOTICE";
     private static final String NOTICE_TXT_PATH = "META-INF/NOTICE.txt";
@@ -60,7 +62,7 @@ public class ApacheNoticeAgreggator implements Transformer {
     String encoding;
 
 
-    Map organizationEntries = new LinkedHashMap();
+    Map<String, Set<String>> organizationEntries = new LinkedHashMap<String, Set<String>>();
     String projectName;
 
     // If notices is not set.. a default one will be generated using the following
@@ -78,6 +80,15 @@ public class ApacheNoticeAgreggator implements Transformer {
 
         Set<String> noticeSet = new LinkedHashSet<String>();
 
+        // The organizations and copyright picked up from the notice files only belong to
+        // this run, the configured values are copied since concurrent runs can share this transformer.
+        Map<String, Set<String>> organizationEntries = new LinkedHashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : this.organizationEntries.entrySet()) {
+            Set<String> value = entry.getValue();
+            organizationEntries.put(entry.getKey(), value instanceof SortedSet ? new TreeSet<String>((SortedSet<String>) value) : new LinkedHashSet<String>(value));
+        }
+        String copyright = this.copyright;
+
         // Do some setup...
         if (notices==null) {
 
@@ -104,18 +115,25 @@ public class ApacheNoticeAgreggator implements Transformer {
 
         // AddResource all the license files..
         ArrayList<UberEntry> matches = new ArrayList<UberEntry>();
-        for (UberEntry entry : new ArrayList<UberEntry>(uberEntries.values())) {
-            if (matches(entry.getPath())) {
-                for (File file : entry.getSources()) {
-                    processFile(file, noticeSet);
+        ArrayList<UberEntry> candidates = new ArrayList<UberEntry>(UberEntryTree.equalsIgnoreCase(uberEntries, NOTICE_PATH));
+        candidates.addAll(UberEntryTree.equalsIgnoreCase(uberEntries, NOTICE_TXT_PATH));
+        Collections.sort(candidates, new Comparator<UberEntry>() {
+            public int compare(UberEntry a, UberEntry b) {
+                return a.getPath().compareTo(b.getPath());
+            }
+        });
+        for (UberEntry entry : candidates) {
+            for (File file : entry.getSourceList()) {
+                String found = processFile(file, noticeSet, organizationEntries);
+                if (found != null) {
+                    copyright = found;
                 }
-                matches.add(entry);
             }
+            matches.add(entry);
         }
 
         // Create the new merged license file.
-        File targetFile = DefaultUberizer.prepareFile(workDir, NOTICE_PATH);
-        FileOutputStream jos = new FileOutputStream(targetFile);
+        ByteArrayOutputStream jos = new ByteArrayOutputStream();
 
         Writer pow;
         if (StringUtils.isNotEmpty(encoding)) {
@@ -126,9 +144,8 @@ public class ApacheNoticeAgreggator implements Transformer {
         PrintWriter writer = new PrintWriter(pow);
 
         int count = 0;
-        for (Iterator itr = noticeSet.iterator(); itr.hasNext();) {
+        for (String line : noticeSet) {
             ++count;
-            String line = (String) itr.next();
             if (line.equals(copyright) && count != 2) {
                 continue;
             }
@@ -142,23 +159,22 @@ public class ApacheNoticeAgreggator implements Transformer {
             }
             if (count == 3) {
                 //do org stuff
-                for (Iterator oit = organizationEntries.entrySet().iterator(); oit.hasNext();) {
-                    Map.Entry entry = (Map.Entry) oit.next();
-                    writer.print(entry.getKey().toString());
+                for (Map.Entry<String, Set<String>> entry : organizationEntries.entrySet()) {
+                    writer.print(entry.getKey());
                     writer.print('\n');
-                    Set entrySet = (Set) entry.getValue();
-                    for (Iterator eit = entrySet.iterator(); eit.hasNext();) {
-                        writer.print(eit.next().toString());
+                    for (String orgEntry : entry.getValue()) {
+                        writer.print(orgEntry);
                     }
                     writer.print('\n');
                 }
             }
         }
         writer.flush();
+        File targetFile = uberizer.getStagingStore().write(workDir, NOTICE_PATH, jos.toByteArray());
 
         // Update the entry tree
         UberEntry modEntry = new UberEntry(NOTICE_PATH, matches);
-        modEntry.getSources().add(targetFile);
+        modEntry.getSourceList().add(targetFile);
         uberEntries.put(modEntry.getPath(), modEntry);
     }
 
@@ -167,67 +183,75 @@ public class ApacheNoticeAgreggator implements Transformer {
                 || NOTICE_TXT_PATH.equalsIgnoreCase(resource);
     }
 
-    private void processFile(File file, Set<String> entries) throws IOException {
+    /**
+     * @return the copyright of the project if the file contains it.
+     */
+    private String processFile(File file, Set<String> entries, Map<String, Set<String>> organizationEntries) throws IOException {
+        String copyright = null;
         BufferedReader reader;
         if (StringUtils.isNotEmpty(encoding)) {
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), encoding));
+            reader = new BufferedReader(new InputStreamReader(DefaultUberizer.openStream(file), encoding));
         } else {
-            reader = new BufferedReader(new FileReader(file));
+            reader = new BufferedReader(new InputStreamReader(DefaultUberizer.openStream(file)));
         }
+        try {
+            String line = reader.readLine();
+            StringBuffer sb = new StringBuffer();
+            Set<String> currentOrg = null;
+            int lineCount = 0;
+            while (line != null) {
+                String trimedLine = line.trim();
 
-        String line = reader.readLine();
-        StringBuffer sb = new StringBuffer();
-        Set currentOrg = null;
-        int lineCount = 0;
-        while (line != null) {
-            String trimedLine = line.trim();
-
-            if (!trimedLine.startsWith("//")) {
-                if (trimedLine.length() > 0) {
-                    if (trimedLine.startsWith("- ")) {
-                        //transformer-bundle 1.3 mode
-                        if (lineCount == 1
-                                && sb.toString().indexOf("This product includes/uses software(s) developed by") != -1) {
-                            currentOrg = (Set) organizationEntries.get(sb.toString().trim());
-                            if (currentOrg == null) {
-                                currentOrg = new TreeSet();
-                                organizationEntries.put(sb.toString().trim(), currentOrg);
+                if (!trimedLine.startsWith("//")) {
+                    if (trimedLine.length() > 0) {
+                        if (trimedLine.startsWith("- ")) {
+                            //transformer-bundle 1.3 mode
+                            if (lineCount == 1
+                                    && sb.toString().indexOf("This product includes/uses software(s) developed by") != -1) {
+                                currentOrg = organizationEntries.get(sb.toString().trim());
+                                if (currentOrg == null) {
+                                    currentOrg = new TreeSet<String>();
+                                    organizationEntries.put(sb.toString().trim(), currentOrg);
+                                }
+                                sb = new StringBuffer();
+                            } else if (sb.length() > 0 && currentOrg != null) {
+                                currentOrg.add(sb.toString());
+                                sb = new StringBuffer();
                             }
-                            sb = new StringBuffer();
-                        } else if (sb.length() > 0 && currentOrg != null) {
-                            currentOrg.add(sb.toString());
-                            sb = new StringBuffer();
-                        }
 
-                    }
-                    sb.append(line).append("\n");
-                    lineCount++;
-                } else {
-                    String ent = sb.toString();
-                    if (ent.startsWith(projectName)
-                            && ent.indexOf("Copyright ") != -1) {
-                        copyright = ent;
-                    }
-                    if (currentOrg == null) {
-                        entries.add(ent);
+                        }
+                        sb.append(line).append("\n");
+                        lineCount++;
                     } else {
-                        currentOrg.add(ent);
+                        String ent = sb.toString();
+                        if (ent.startsWith(projectName)
+                                && ent.indexOf("Copyright ") != -1) {
+                            copyright = ent;
+                        }
+                        if (currentOrg == null) {
+                            entries.add(ent);
+                        } else {
+                            currentOrg.add(ent);
+                        }
+                        sb = new StringBuffer();
+                        lineCount = 0;
+                        currentOrg = null;
                     }
-                    sb = new StringBuffer();
-                    lineCount = 0;
-                    currentOrg = null;
                 }
-            }
 
-            line = reader.readLine();
-        }
-        if (sb.length() > 0) {
-            if (currentOrg == null) {
-                entries.add(sb.toString());
-            } else {
-                currentOrg.add(sb.toString());
+                line = reader.readLine();
+            }
+            if (sb.length() > 0) {
+                if (currentOrg == null) {
+                    entries.add(sb.toString());
+                } else {
+                    currentOrg.add(sb.toString());
+                }
             }
+        } finally {
+            IOUtil.close(reader);
         }
+        return copyright;
     }
 
 }
@@ -20,44 +20,57 @@ package org.fusesource.mvnplugins.uberize.transformer;
 
 import org.fusesource.mvnplugins.uberize.relocation.Relocator;
 import org.fusesource.mvnplugins.uberize.relocation.SimpleRelocator;
+import org.fusesource.mvnplugins.uberize.relocation.ClassNameRewriter;
 import org.fusesource.mvnplugins.uberize.relocation.PackageRelocation;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.relocation.RelocationEngine;
+import org.fusesource.mvnplugins.uberize.JarEntryFile;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 import org.fusesource.mvnplugins.uberize.DefaultUberizer;
+import org.fusesource.mvnplugins.uberize.StagingStore;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 import org.codehaus.plexus.util.IOUtil;
-import org.codehaus.plexus.util.FileUtils;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.Remapper;
 import org.objectweb.asm.commons.RemappingClassAdapter;
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.regex.Pattern;
-import java.util.Map.Entry;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Uses byte code manipulation to relocate java classes to a new package.  It can optionally
  * update resource files so that class names referenced in the files are updated with
  * the new package names.
  *
+ * Additional class stages can be configured, they get applied in the same pass
+ * which relocates the classes and see the relocated class names.
+ *
  * @author Jason van Zyl
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class ClassShader implements Transformer {
+public class ClassShader implements LazySourceTransformer {
     
     public PackageRelocation[] relocations;
     public Resources resources;
+    public ClassStage[] stages;
 
     private List<Relocator> getRelocators()
     {
@@ -80,86 +93,125 @@ public class ClassShader implements Transformer {
 
     public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> nodes) throws IOException {
 
-        final List<Relocator> relocators = getRelocators();
+        final RelocationEngine engine = new RelocationEngine(getRelocators());
 
         // Perhaps there is no work for us to do.
-        if( relocators.isEmpty() ) {
+        boolean staged = stages != null && stages.length > 0;
+        if( engine.isEmpty() && !staged ) {
             return;
         }
 
 
         HashMap<String, String> relocatedClasses = uberizer.getClassRelocations();
-        RelocatorRemapper remapper = new RelocatorRemapper(relocators);
-        for (UberEntry node : new ArrayList<UberEntry>(nodes.values())) {
-            if( node.getSources().isEmpty() ) {
-                continue;
-            }
+        RelocatorRemapper remapper = new RelocatorRemapper(engine);
+        // The constant pool can only be patched when the classes are not visited by other stages.
+        ConstantPoolRelocator poolRelocator = staged ? null : new ConstantPoolRelocator(remapper);
+
+        // Classes relocated from the same jar with the same relocations can be reused across builds.
+        ClassShaderCache cache = null;
+        File cacheDirectory = uberizer.getOptions().getCacheDirectory();
+        if( cacheDirectory != null ) {
+            cache = new ClassShaderCache(new File(cacheDirectory, "class-shader"), relocations, stages);
+        }
+        boolean relocated = false;
+        try {
+            // Sources get picked serially since that logs the overlaps, the classes are then
+            // relocated concurrently and the tree gets updated in path order so the results
+            // don't depend on the number of threads.
+            ArrayList<ShadedClass> classes = new ArrayList<ShadedClass>();
+            LinkedHashMap<String, ShadeTask> tasks = new LinkedHashMap<String, ShadeTask>();
+            for (UberEntry node : UberEntryTree.withExtension(nodes, "class")) {
+                if( node.getSourceList().isEmpty() ) {
+                    continue;
+                }
             
-            String path = node.getPath();
-            if ( path.endsWith( ".class" ) )
-            {
+                String path = node.getPath();
+                if ( path.endsWith( ".class" ) )
+                {
 
-                // Need to take the .class off for remapping evaluation
-                final String classPath = path.substring(0, path.indexOf('.'));
-                String remappedPath = remapper.map(classPath) + ".class";
-                byte[] modifiedClass;
+                    // Need to take the .class off for remapping evaluation
+                    final String classPath = path.substring(0, path.indexOf('.'));
+                    String remappedPath = remapper.map(classPath) + ".class";
+
+                    ShadedClass shaded = new ShadedClass(node, classPath, remappedPath, uberizer.pickOneSource(this, nodes, node));
+                    classes.add(shaded);
+
+                    // Incremental runs can reuse the class relocated from the same source.
+                    shaded.classFile = uberizer.reuseOutput(workDir, remappedPath, shaded.source);
+                    if( shaded.classFile == null ) {
+                        // Classes relocated to the same path are written by the same task in order.
+                        ShadeTask task = tasks.get(remappedPath);
+                        if( task == null ) {
+                            task = new ShadeTask(uberizer.getStagingStore(), workDir, remapper, poolRelocator, stages, cache);
+                            tasks.put(remappedPath, task);
+                        }
+                        task.classes.add(shaded);
+                    }
+                }
+            }
 
-                File file = uberizer.pickOneSource(nodes, node);
-                InputStream is = new FileInputStream( file );
+            int threads = Math.min(DefaultUberizer.threadCount(uberizer.getOptions().getShadeThreads()), tasks.size());
+            if( threads > 1 ) {
+                ExecutorService executor = DefaultUberizer.createExecutor(threads);
                 try {
-                    ClassReader cr = new ClassReader( is );
-                    ClassWriter cw = new ClassWriter( cr, 0 );
-                    ClassVisitor cv = new RemappingClassAdapter( cw, remapper );
-                    cr.accept( cv, ClassReader.EXPAND_FRAMES );
-                    modifiedClass = cw.toByteArray();
+                    for (Future<Object> future : DefaultUberizer.submit(executor, new ArrayList<ShadeTask>(tasks.values()))) {
+                        DefaultUberizer.get(future);
+                    }
                 } finally {
-                    IOUtil.close( is );
+                    executor.shutdownNow();
                 }
+            } else {
+                for (ShadeTask task : tasks.values()) {
+                    task.call();
+                }
+            }
 
+            for (ShadedClass shaded : classes) {
+                uberizer.recordOutput(workDir, shaded.remappedPath, shaded.source);
 
-                String className = classPath.replace('/','.');
-                String mappedClassName = mapClassName(relocators, className);
+                String className = shaded.classPath.replace('/','.');
+                String mappedClassName = engine.relocateClass(className);
                 if( mappedClassName != className ) {
                     relocatedClasses.put(className, mappedClassName);
                 }
 
-                // Write the file out
-                is = new ByteArrayInputStream(modifiedClass);
-                File classFile = DefaultUberizer.writeFile(workDir, remappedPath, is);
-
                 // Modify the node tree.
-                nodes.remove(path);
-                UberEntry update = new UberEntry(remappedPath, node).addSource(classFile);
+                nodes.remove(shaded.node.getPath());
+                UberEntry update = new UberEntry(shaded.remappedPath, shaded.node).addSource(shaded.classFile);
                 nodes.put(update.getPath(), update);
             }
+            relocated = true;
+        } finally {
+            if( cache != null ) {
+                cache.close(relocated);
+            }
         }
 
         // Should we update resources with the class name changes?
         if( resources!=null && !relocatedClasses.isEmpty()) {
             
-            // regex for a non class name character
-            final String ncnc = "(\\A|\\z|[^\\p{L}\\p{Nd}\\.\\$\\_])";
+            // Don't partially match a class, for example replacing the 'test.Foo'
+            // in the 'com.myco.test.Foo' would be a bad thing.
+            ClassNameRewriter rewriter = new ClassNameRewriter(relocatedClasses);
 
-            for (UberEntry node : new ArrayList<UberEntry>(nodes.values())) {
+            for (UberEntry node : resources.select(nodes)) {
                 String path = node.getPath();
-                if ( resources.matches(path) && !path.endsWith(".class")) {
-
-                    File file = uberizer.pickOneSource(nodes, node);
-                    String content = FileUtils.fileRead(file);
-
-
-                    for (Entry<String, String> entry : relocatedClasses.entrySet()) {
-
-                        // This regex is little complicated cause we don't want to partially match a class.
-                        // For example, replacing the 'test.Foo' in the 'com.myco.test.Foo' would be
-                        // a bad thing.
-                        String regex = ncnc + Pattern.quote(entry.getKey()) + ncnc;
-                        // Need to escape the $ litterals in the value...
-                        String value = entry.getValue().replaceAll("\\$", "\\\\\\$");
-                        content = content.replaceAll(regex, "$1"+ value +"$2");
+                if ( !path.endsWith(".class") ) {
+
+                    File file = uberizer.pickOneSource(this, nodes, node);
+                    ByteArrayOutputStream updated = new ByteArrayOutputStream();
+                    Reader reader = new InputStreamReader(DefaultUberizer.openStream(file));
+                    try {
+                        Writer writer = new BufferedWriter(new OutputStreamWriter(updated));
+                        try {
+                            rewriter.rewrite(reader, writer);
+                        } finally {
+                            IOUtil.close(writer);
+                        }
+                    } finally {
+                        IOUtil.close(reader);
                     }
-                    File udpateFile = DefaultUberizer.prepareFile(workDir, node.getPath());
-                    FileUtils.fileWrite(udpateFile.getPath(), content);
+                    File udpateFile = uberizer.getStagingStore().write(workDir, node.getPath(), updated.toByteArray());
 
                     // Modify the node tree.
                     UberEntry update = new UberEntry(node).addSource(udpateFile);
@@ -170,115 +222,113 @@ public class ClassShader implements Transformer {
 
     }
 
-    public String mapClassName(List<Relocator> relocators, String name)
-    {
-        String value = name;
-        for ( Iterator i = relocators.iterator(); i.hasNext(); )
-        {
-            Relocator r = (Relocator) i.next();
-            if ( r.canRelocateClass( name ) )
-            {
-                value = r.relocateClass( name );
-                break;
+    private static class ShadedClass {
+        final UberEntry node;
+        final String classPath;
+        final String remappedPath;
+        final File source;
+        File classFile;
+
+        ShadedClass(UberEntry node, String classPath, String remappedPath, File source) {
+            this.node = node;
+            this.classPath = classPath;
+            this.remappedPath = remappedPath;
+            this.source = source;
+        }
+    }
+
+    /**
+     * Relocates classes and stages them in the staging store.
+     */
+    private static class ShadeTask implements Callable<Object> {
+        final ArrayList<ShadedClass> classes = new ArrayList<ShadedClass>(1);
+        final StagingStore store;
+        final File workDir;
+        final RelocatorRemapper remapper;
+        final ConstantPoolRelocator poolRelocator;
+        final ClassStage[] stages;
+        final ClassShaderCache cache;
+
+        ShadeTask(StagingStore store, File workDir, RelocatorRemapper remapper, ConstantPoolRelocator poolRelocator, ClassStage[] stages, ClassShaderCache cache) {
+            this.store = store;
+            this.workDir = workDir;
+            this.remapper = remapper;
+            this.poolRelocator = poolRelocator;
+            this.stages = stages;
+            this.cache = cache;
+        }
+
+        public Object call() throws IOException {
+            for (ShadedClass shaded : classes) {
+                File file = shaded.source;
+                String path = shaded.node.getPath();
+                File jar = cache != null && file instanceof JarEntryFile ? ((JarEntryFile) file).getJar() : null;
+                byte[] modifiedClass = jar != null ? cache.get(jar, path) : null;
+                if( modifiedClass == null ) {
+                    byte[] originalClass;
+                    InputStream is = DefaultUberizer.openStream( file );
+                    try {
+                        originalClass = IOUtil.toByteArray( is );
+                    } finally {
+                        IOUtil.close( is );
+                    }
+
+                    // Most classes only need a few constant pool entries updated.
+                    modifiedClass = poolRelocator != null ? poolRelocator.relocate( originalClass ) : null;
+                    if( modifiedClass == null ) {
+                        ClassReader cr = new ClassReader( originalClass );
+                        // Copying the constant pool would keep the entries which the stages drop.
+                        ClassWriter cw = stages != null && stages.length > 0 ? new ClassWriter( 0 ) : new ClassWriter( cr, 0 );
+                        ClassVisitor cv = cw;
+                        if( stages != null ) {
+                            for (int i = stages.length - 1; i >= 0; i--) {
+                                cv = stages[i].createVisitor( cv );
+                            }
+                        }
+                        if( remapper.hasRelocators() ) {
+                            cv = new RemappingClassAdapter( cv, remapper );
+                        }
+                        cr.accept( cv, ClassReader.EXPAND_FRAMES );
+                        modifiedClass = cw.toByteArray();
+                    }
+                    if( jar != null ) {
+                        cache.put(jar, path, modifiedClass);
+                    }
+                }
+
+                // Write the file out
+                shaded.classFile = store.write(workDir, shaded.remappedPath, modifiedClass);
             }
+            return null;
         }
-        return value;
     }
 
     class RelocatorRemapper extends Remapper
     {
-        List<Relocator> relocators;
+        RelocationEngine engine;
 
-        public RelocatorRemapper( List<Relocator> relocators )
+        public RelocatorRemapper( RelocationEngine engine )
         {
-            this.relocators = relocators;
+            this.engine = engine;
         }
 
         public boolean hasRelocators()
         {
-            return !relocators.isEmpty();
+            return !engine.isEmpty();
         }
 
         public Object mapValue( Object object )
         {
             if ( object instanceof String )
             {
-                String name = (String) object;
-                String value = name;
-                for ( Iterator i = relocators.iterator(); i.hasNext(); )
-                {
-                    Relocator r = (Relocator) i.next();
-
-                    if ( r.canRelocateClass( name ) )
-                    {
-                        value = r.relocateClass( name );
-                        break;
-                    }
-                    else if ( r.canRelocatePath( name ) )
-                    {
-                        value = r.relocatePath( name );
-                        break;
-                    }
-
-                    if ( name.length() > 0 && name.charAt( 0 ) == '[' )
-                    {
-                        int count = 0;
-                        while ( name.length() > 0 && name.charAt(0) == '[' )
-                        {
-                            name = name.substring( 1 );
-                            ++count;
-                        }
-
-                        if ( name.length() > 0
-                             && name.charAt( 0 ) == 'L'
-                             && name.charAt( name.length() - 1 ) == ';' )
-                        {
-                            name = name.substring( 1, name.length() - 1 );
-
-                            if ( r.canRelocatePath( name ) )
-                            {
-                                value = 'L' + r.relocatePath( name ) + ';';
-                                while ( count > 0 )
-                                {
-                                    value = '[' + value;
-                                    --count;
-                                }
-                                break;
-                            }
-
-                            if ( r.canRelocateClass( name ) )
-                            {
-                                value = 'L' + r.relocateClass( name ) + ';';
-                                while (count > 0)
-                                {
-                                    value = '[' + value;
-                                    --count;
-                                }
-                                break;
-                            }
-
-                        }
-                    }
-                }
-                return value;
+                return engine.relocateValue( (String) object );
             }
             return super.mapValue( object );
         }
 
         public String map( String name )
         {
-            String value = name;
-            for ( Iterator i = relocators.iterator(); i.hasNext(); )
-            {
-                Relocator r = (Relocator) i.next();
-
-                if ( r.canRelocatePath( name ) )
-                {
-                    value = r.relocatePath( name );
-                    break;
-                }
-            }
-            return value;
+            return engine.relocatePath( name );
         }
     }
 
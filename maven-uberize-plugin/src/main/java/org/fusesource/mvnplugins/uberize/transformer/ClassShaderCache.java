@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.transformer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
+import org.fusesource.mvnplugins.uberize.relocation.PackageRelocation;
+
+/**
+ * A cache of relocated classes which is shared between builds.  The classes
+ * relocated from a source jar are stored in a cache jar named after the hash
+ * of the source jar's content and the hash of the relocation configuration.
+ *
+ * A cache jar is written the first time a source jar gets relocated with a
+ * given configuration.  When a later build relocates classes which are missing
+ * from it, for example ones which lost an overlap or got filtered out before, a
+ * replacement holding the existing and the new classes gets written.  Cache jars
+ * are written to a temp file first and then renamed so that concurrent builds
+ * never see a partial cache jar.
+ *
+ * The shading threads only contend on the lookup of the cache jars.  Classes
+ * are read from the cache jars without locking and get stored uncompressed so
+ * that adding one to a cache jar is just a write.
+ */
+class ClassShaderCache {
+
+    /**
+     * Bump when the relocation logic changes so that stale cache jars are not used.
+     */
+    private static final String VERSION = "1";
+
+    private final File directory;
+    private final String configHash;
+    private final HashMap<File, CacheJar> jars = new HashMap<File, CacheJar>();
+
+    private static class CacheJar {
+        File file;
+        ZipFile existing;
+        File temp;
+        JarOutputStream writer;
+        final HashSet<String> written = new HashSet<String>();
+        IOException failure;
+    }
+
+    ClassShaderCache(File directory, PackageRelocation[] relocations, ClassStage[] stages) {
+        this.directory = directory;
+        this.configHash = configHash(relocations, stages);
+    }
+
+    /**
+     * @return the relocated class or null if it's not in the cache.
+     */
+    public byte[] get(File jar, String path) throws IOException {
+        CacheJar cacheJar = getCacheJar(jar);
+        if (cacheJar.existing == null) {
+            return null;
+        }
+        ZipEntry entry = cacheJar.existing.getEntry(path);
+        if (entry == null) {
+            return null;
+        }
+        InputStream is = cacheJar.existing.getInputStream(entry);
+        try {
+            return IOUtil.toByteArray(is);
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    public void put(File jar, String path, byte[] data) throws IOException {
+        CacheJar cacheJar = getCacheJar(jar);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        JarEntry entry = storedEntry(path, data.length, crc.getValue());
+        synchronized (cacheJar) {
+            if (!cacheJar.written.add(path)) {
+                return;
+            }
+            if (cacheJar.writer == null) {
+                // A miss against an existing cache jar, it gets replaced on close.
+                startWriter(cacheJar);
+            }
+            cacheJar.writer.putNextEntry(entry);
+            cacheJar.writer.write(data);
+            cacheJar.writer.closeEntry();
+        }
+    }
+
+    private static JarEntry storedEntry(String path, long size, long crc) {
+        JarEntry entry = new JarEntry(path);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc);
+        return entry;
+    }
+
+    private void startWriter(CacheJar cacheJar) throws IOException {
+        directory.mkdirs();
+        cacheJar.temp = File.createTempFile(cacheJar.file.getName(), ".tmp", directory);
+        cacheJar.writer = new JarOutputStream(new FileOutputStream(cacheJar.temp));
+    }
+
+    /**
+     * Copies the classes of the existing cache jar which this build did not write.
+     */
+    private static void merge(CacheJar cacheJar) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        for (Enumeration<? extends ZipEntry> i = cacheJar.existing.entries(); i.hasMoreElements();) {
+            ZipEntry entry = i.nextElement();
+            if (entry.isDirectory() || !cacheJar.written.add(entry.getName())) {
+                continue;
+            }
+            cacheJar.writer.putNextEntry(storedEntry(entry.getName(), entry.getSize(), entry.getCrc()));
+            InputStream is = cacheJar.existing.getInputStream(entry);
+            try {
+                int c;
+                while ((c = is.read(buffer)) >= 0) {
+                    cacheJar.writer.write(buffer, 0, c);
+                }
+            } finally {
+                IOUtil.close(is);
+            }
+            cacheJar.writer.closeEntry();
+        }
+    }
+
+    /**
+     * Publishes the cache jars which were written or extended.  When the relocation
+     * failed, they get discarded instead.
+     */
+    public void close(boolean publish) throws IOException {
+        ArrayList<CacheJar> cacheJars;
+        synchronized (jars) {
+            cacheJars = new ArrayList<CacheJar>(jars.values());
+            jars.clear();
+        }
+        for (CacheJar cacheJar : cacheJars) {
+            synchronized (cacheJar) {
+                try {
+                    if (cacheJar.writer != null) {
+                        if (publish && cacheJar.existing != null) {
+                            merge(cacheJar);
+                        }
+                        cacheJar.writer.close();
+                        if (publish && cacheJar.existing != null) {
+                            // Replaces the cache jar, which other builds may have open.
+                            cacheJar.existing.close();
+                            cacheJar.existing = null;
+                            cacheJar.temp.renameTo(cacheJar.file);
+                        } else if (publish && !cacheJar.file.exists()) {
+                            cacheJar.temp.renameTo(cacheJar.file);
+                        }
+                        cacheJar.temp.delete();
+                    }
+                } finally {
+                    if (cacheJar.existing != null) {
+                        try {
+                            cacheJar.existing.close();
+                        } catch (IOException ignore) {
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private CacheJar getCacheJar(File jar) throws IOException {
+        CacheJar rc;
+        boolean created = false;
+        synchronized (jars) {
+            rc = jars.get(jar);
+            if (rc == null) {
+                rc = new CacheJar();
+                jars.put(jar, rc);
+                created = true;
+            }
+        }
+        // The cache jar gets opened outside of the lookup lock, the threads
+        // relocating classes of the same jar wait for it.
+        synchronized (rc) {
+            if (created) {
+                try {
+                    open(rc, jar);
+                } catch (IOException e) {
+                    rc.failure = e;
+                }
+            }
+            if (rc.failure != null) {
+                throw rc.failure;
+            }
+        }
+        return rc;
+    }
+
+    private void open(CacheJar rc, File jar) throws IOException {
+        rc.file = new File(directory, jarHash(jar) + "-" + configHash + ".jar");
+        if (rc.file.exists()) {
+            try {
+                rc.existing = new ZipFile(rc.file);
+            } catch (ZipException e) {
+                // A corrupt cache jar gets replaced.
+                rc.file.delete();
+            }
+        }
+        if (rc.existing == null) {
+            startWriter(rc);
+        }
+    }
+
+    /**
+     * Hashes the content of a jar.
+     */
+    static String jarHash(File jar) throws IOException {
+        MessageDigest digest = sha1();
+        InputStream is = new FileInputStream(jar);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int c;
+            while ((c = is.read(buffer)) >= 0) {
+                digest.update(buffer, 0, c);
+            }
+        } finally {
+            IOUtil.close(is);
+        }
+        return hex(digest.digest());
+    }
+
+    static String configHash(PackageRelocation[] relocations, ClassStage[] stages) {
+        StringBuilder sb = new StringBuilder(VERSION);
+        if (stages != null) {
+            for (ClassStage stage : stages) {
+                sb.append('\n').append(stage.getClass().getName()).append('|').append(DefaultUberizer.fingerprint(stage));
+            }
+        }
+        for (PackageRelocation relocation : relocations == null ? new PackageRelocation[0] : relocations) {
+            sb.append('\n').append(relocation.getPattern()).append('|').append(relocation.getShadedPattern());
+            if (relocation.getExcludes() != null) {
+                List<String> excludes = new ArrayList<String>();
+                for (Object exclude : relocation.getExcludes()) {
+                    excludes.add((String) exclude);
+                }
+                Collections.sort(excludes);
+                sb.append('|').append(excludes);
+            }
+        }
+        try {
+            return hex(sha1().digest(sb.toString().getBytes("UTF-8")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] data) {
+        StringBuilder rc = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            rc.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return rc.toString();
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.transformer;
+
+import org.objectweb.asm.ClassVisitor;
+
+/**
+ * A bytecode transformation applied by the {@link ClassShader}.  The stages are chained
+ * into the single ClassReader to ClassWriter pass done for each class, so adding a stage
+ * costs one more visitor instead of one more pass over all the classes.
+ * <p>
+ * Visitors get created concurrently for different classes so implementations must be
+ * thread safe.
+ */
+public interface ClassStage {
+
+    /**
+     * @param next the visitor the transformed class must be passed on to.
+     * @return the visitor which applies the transformation to one class.
+     */
+    ClassVisitor createVisitor(ClassVisitor next);
+
+}
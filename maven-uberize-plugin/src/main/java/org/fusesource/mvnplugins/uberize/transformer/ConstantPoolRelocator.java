@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.transformer;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Relocates a class by only rewriting the UTF8 entries of its constant pool,
+ * the rest of the class file gets copied as is.
+ * <p>
+ * Every reference to a UTF8 entry is tracked to know if it is used as a class
+ * name, a descriptor, a signature, a string constant or a plain name.  The entry is
+ * then mapped the same way the RemappingClassAdapter maps it.  When an entry is used
+ * in ways that map it to different values, or a class uses constant or attribute types
+ * this class does not know about, the class has to be relocated with ASM instead.
+ */
+class ConstantPoolRelocator {
+
+    private static final int NAME = 1;
+    private static final int CLASS = 2;
+    private static final int DESC = 4;
+    private static final int METHOD_DESC = 8;
+    private static final int VALUE = 16;
+    private static final int TYPE_VALUE = 32;
+    private static final int SIGNATURE = 64;
+    private static final int TYPE_SIGNATURE = 128;
+
+    private static final int LEVEL_CLASS = 0;
+    private static final int LEVEL_FIELD = 1;
+    private static final int LEVEL_METHOD = 2;
+    private static final int LEVEL_CODE = 3;
+
+    private final Remapper remapper;
+
+    ConstantPoolRelocator(Remapper remapper) {
+        this.remapper = remapper;
+    }
+
+    /**
+     * @return the relocated class file, the same array if nothing had to be relocated
+     * or null if the class has to be relocated with ASM.
+     */
+    public byte[] relocate(byte[] b) {
+        try {
+            return new Parse(b).relocate();
+        } catch (RuntimeException e) {
+            // A class file we don't understand, let ASM deal with it.
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private class Parse {
+        private final byte[] b;
+        private int[] offsets;
+        private String[] strings;
+        private int[] roles;
+        private boolean unknownAttributes;
+
+        Parse(byte[] b) {
+            this.b = b;
+        }
+
+        byte[] relocate() throws IOException {
+            if (u2(0) != 0xCAFE || u2(2) != 0xBABE) {
+                return null;
+            }
+            int count = u2(8);
+            offsets = new int[count];
+            strings = new String[count];
+            roles = new int[count];
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = pos;
+                switch (b[pos]) {
+                    case 1:
+                        strings[i] = utf8(pos + 3, u2(pos + 1));
+                        pos += 3 + u2(pos + 1);
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                        pos += 5;
+                        break;
+                    case 5:
+                    case 6:
+                        pos += 9;
+                        i++;
+                        break;
+                    case 7:
+                    case 8:
+                        pos += 3;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+            int poolEnd = pos;
+
+            for (int i = 1; i < count; i++) {
+                int offset = offsets[i];
+                if (offset == 0) {
+                    continue;
+                }
+                switch (b[offset]) {
+                    case 7:
+                        mark(u2(offset + 1), CLASS);
+                        break;
+                    case 8:
+                        mark(u2(offset + 1), VALUE);
+                        break;
+                    case 12:
+                        mark(u2(offset + 1), NAME);
+                        markDesc(u2(offset + 3));
+                        break;
+                }
+            }
+
+            // access, this and super class are class entries.
+            pos = poolEnd + 6;
+            pos += 2 + 2 * u2(pos);
+            for (int level = LEVEL_FIELD; level <= LEVEL_METHOD; level++) {
+                int members = u2(pos);
+                pos += 2;
+                for (int i = 0; i < members; i++) {
+                    mark(u2(pos + 2), NAME);
+                    mark(u2(pos + 4), level == LEVEL_FIELD ? DESC : METHOD_DESC);
+                    pos = attributes(pos + 6, level);
+                }
+            }
+            if (attributes(pos, LEVEL_CLASS) != b.length) {
+                return null;
+            }
+
+            // Work out the new value of every referenced UTF8 entry.
+            String[] updates = new String[count];
+            boolean changed = false;
+            for (int i = 1; i < count; i++) {
+                if (roles[i] == 0 || strings[i] == null) {
+                    continue;
+                }
+                String value = null;
+                for (int role = NAME; role <= TYPE_SIGNATURE; role <<= 1) {
+                    if ((roles[i] & role) != 0) {
+                        String mapped = map(strings[i], role);
+                        if (value != null && !value.equals(mapped)) {
+                            return null;
+                        }
+                        value = mapped;
+                    }
+                }
+                if (!value.equals(strings[i])) {
+                    updates[i] = value;
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                return b;
+            }
+            if (unknownAttributes) {
+                return null;
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(b.length + 256);
+            DataOutputStream os = new DataOutputStream(baos);
+            os.write(b, 0, 10);
+            int copied = 10;
+            for (int i = 1; i < count; i++) {
+                if (updates[i] != null) {
+                    int offset = offsets[i];
+                    os.write(b, copied, offset - copied);
+                    os.writeByte(1);
+                    os.writeUTF(updates[i]);
+                    copied = offset + 3 + u2(offset + 1);
+                }
+            }
+            os.write(b, copied, b.length - copied);
+            os.close();
+            return baos.toByteArray();
+        }
+
+        private String map(String value, int role) {
+            switch (role) {
+                case CLASS:
+                    return remapper.mapType(value);
+                case DESC:
+                    return remapper.mapDesc(value);
+                case METHOD_DESC:
+                    return remapper.mapMethodDesc(value);
+                case VALUE:
+                    return (String) remapper.mapValue(value);
+                case TYPE_VALUE:
+                    return ((Type) remapper.mapValue(Type.getType(value))).getDescriptor();
+                case SIGNATURE:
+                    return remapper.mapSignature(value, false);
+                case TYPE_SIGNATURE:
+                    return remapper.mapSignature(value, true);
+                default:
+                    return value;
+            }
+        }
+
+        private void mark(int index, int role) {
+            if (index != 0) {
+                if (strings[index] == null) {
+                    throw new IllegalArgumentException("Not a UTF8 constant: " + index);
+                }
+                roles[index] |= role;
+            }
+        }
+
+        private void markDesc(int index) {
+            mark(index, strings[index] != null && strings[index].startsWith("(") ? METHOD_DESC : DESC);
+        }
+
+        /**
+         * @return the position following the attributes.
+         */
+        private int attributes(int pos, int level) {
+            int count = u2(pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                int nameIndex = u2(pos);
+                mark(nameIndex, NAME);
+                String name = strings[nameIndex];
+                int start = pos + 6;
+                int end = start + u4(pos + 2);
+                if ("Code".equals(name) && level == LEVEL_METHOD) {
+                    int p = start + 8 + u4(start + 4);
+                    p += 2 + 8 * u2(p);
+                    if (attributes(p, LEVEL_CODE) != end) {
+                        throw new IllegalArgumentException("Invalid code attribute");
+                    }
+                } else if ("Signature".equals(name) && level != LEVEL_CODE) {
+                    mark(u2(start), level == LEVEL_FIELD ? TYPE_SIGNATURE : SIGNATURE);
+                } else if ("SourceFile".equals(name) && level == LEVEL_CLASS) {
+                    mark(u2(start), NAME);
+                } else if ("InnerClasses".equals(name) && level == LEVEL_CLASS) {
+                    int entries = u2(start);
+                    for (int j = 0; j < entries; j++) {
+                        mark(u2(start + 2 + 8 * j + 4), NAME);
+                    }
+                } else if (("LocalVariableTable".equals(name) || "LocalVariableTypeTable".equals(name)) && level == LEVEL_CODE) {
+                    int role = "LocalVariableTable".equals(name) ? DESC : TYPE_SIGNATURE;
+                    int entries = u2(start);
+                    for (int j = 0; j < entries; j++) {
+                        mark(u2(start + 2 + 10 * j + 4), NAME);
+                        mark(u2(start + 2 + 10 * j + 6), role);
+                    }
+                } else if (("RuntimeVisibleAnnotations".equals(name) || "RuntimeInvisibleAnnotations".equals(name)) && level != LEVEL_CODE) {
+                    // Only the class annotation types get remapped.
+                    int p = start + 2;
+                    for (int j = u2(start); j > 0; j--) {
+                        p = annotation(p, level == LEVEL_CLASS ? CLASS : NAME);
+                    }
+                } else if (("RuntimeVisibleParameterAnnotations".equals(name) || "RuntimeInvisibleParameterAnnotations".equals(name)) && level == LEVEL_METHOD) {
+                    int p = start + 1;
+                    for (int j = b[start] & 0xFF; j > 0; j--) {
+                        int annotations = u2(p);
+                        p += 2;
+                        for (int k = 0; k < annotations; k++) {
+                            p = annotation(p, NAME);
+                        }
+                    }
+                } else if ("AnnotationDefault".equals(name) && level == LEVEL_METHOD) {
+                    elementValue(start);
+                } else if (!"ConstantValue".equals(name) && !"Exceptions".equals(name) && !"EnclosingMethod".equals(name)
+                        && !"Deprecated".equals(name) && !"Synthetic".equals(name) && !"SourceDebugExtension".equals(name)
+                        && !"LineNumberTable".equals(name) && !"StackMapTable".equals(name)) {
+                    // These only reference other kinds of constants.
+                    unknownAttributes = true;
+                }
+                pos = end;
+            }
+            return pos;
+        }
+
+        private int annotation(int pos, int typeRole) {
+            mark(u2(pos), typeRole);
+            int pairs = u2(pos + 2);
+            pos += 4;
+            for (int i = 0; i < pairs; i++) {
+                mark(u2(pos), NAME);
+                pos = elementValue(pos + 2);
+            }
+            return pos;
+        }
+
+        private int elementValue(int pos) {
+            switch (b[pos]) {
+                case 'B':
+                case 'C':
+                case 'D':
+                case 'F':
+                case 'I':
+                case 'J':
+                case 'S':
+                case 'Z':
+                    return pos + 3;
+                case 's':
+                    mark(u2(pos + 1), VALUE);
+                    return pos + 3;
+                case 'e':
+                    mark(u2(pos + 1), CLASS);
+                    mark(u2(pos + 3), NAME);
+                    return pos + 5;
+                case 'c':
+                    mark(u2(pos + 1), TYPE_VALUE);
+                    return pos + 3;
+                case '@':
+                    return annotation(pos + 1, CLASS);
+                case '[':
+                    int values = u2(pos + 1);
+                    pos += 3;
+                    for (int i = 0; i < values; i++) {
+                        pos = elementValue(pos);
+                    }
+                    return pos;
+                default:
+                    throw new IllegalArgumentException("Invalid element value: " + b[pos]);
+            }
+        }
+
+        private int u2(int pos) {
+            return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+        }
+
+        private int u4(int pos) {
+            return (u2(pos) << 16) | u2(pos + 2);
+        }
+
+        /**
+         * Decodes modified UTF-8.
+         */
+        private String utf8(int pos, int length) {
+            char[] chars = new char[length];
+            int size = 0;
+            int end = pos + length;
+            while (pos < end) {
+                int c = b[pos++] & 0xFF;
+                if (c < 0x80) {
+                    chars[size++] = (char) c;
+                } else if (c < 0xE0) {
+                    chars[size++] = (char) (((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+                } else {
+                    chars[size++] = (char) (((c & 0x0F) << 12) | ((b[pos] & 0x3F) << 6) | (b[pos + 1] & 0x3F));
+                    pos += 2;
+                }
+            }
+            return new String(chars, 0, size);
+        }
+    }
+
+}
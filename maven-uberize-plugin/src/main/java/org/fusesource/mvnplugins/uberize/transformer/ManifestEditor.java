@@ -18,15 +18,16 @@
  */
 package org.fusesource.mvnplugins.uberize.transformer;
 
+import org.fusesource.mvnplugins.uberize.BufferedSource;
 import org.fusesource.mvnplugins.uberize.DefaultUberizer;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 import org.codehaus.plexus.util.IOUtil;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
@@ -42,7 +43,7 @@ import java.util.jar.Manifest;
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  * @since 1.2
  */
-public class ManifestEditor implements Transformer {
+public class ManifestEditor implements LazySourceTransformer {
     private static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
 
     // Configuration
@@ -53,9 +54,9 @@ public class ManifestEditor implements Transformer {
 
         Manifest manifest;
         final UberEntry uberEntry = uberEntries.get(MANIFEST_PATH);
-        if (uberEntry != null && uberEntry.getSources().size() > 0) {
+        if (uberEntry != null && uberEntry.getSourceList().size() > 0) {
             // We just want to take the first manifest we come across as that's our project's manifest.
-            FileInputStream is = new FileInputStream(uberEntry.getSources().get(0));
+            InputStream is = DefaultUberizer.openStream(uberEntry.getSourceList().get(0));
             try {
                 manifest = new Manifest(is);
             } finally {
@@ -77,8 +78,8 @@ public class ManifestEditor implements Transformer {
             }
         }
 
-        File targetFile = DefaultUberizer.prepareFile(workDir, MANIFEST_PATH);
-        FileOutputStream os = new FileOutputStream(targetFile);
+        BufferedSource targetFile = new BufferedSource(uberizer.getStagingStore(), workDir, MANIFEST_PATH);
+        OutputStream os = targetFile.openOutputStream();
         try {
             manifest.write(os);
         } finally {
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.List;
 
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
@@ -32,12 +33,12 @@ import org.fusesource.mvnplugins.uberize.Uberizer;
  *
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class PickResource extends AbstractPathTransformer {
+public class PickResource extends AbstractPathTransformer implements LazySourceTransformer {
 
     public String pick ="first";
 
     protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException {
-        final List<File> sources = entry.getSources();
+        final List<File> sources = entry.getSourceList();
         if( sources.isEmpty() ) {
             return entry;
         }
@@ -19,8 +19,10 @@ package org.fusesource.mvnplugins.uberize.transformer;
  * under the License.
  */
 
+import org.fusesource.mvnplugins.uberize.BufferedSource;
 import org.fusesource.mvnplugins.uberize.DefaultUberizer;
-import org.fusesource.mvnplugins.uberize.Transformer;
+import org.fusesource.mvnplugins.uberize.EntryTransformer;
+import org.fusesource.mvnplugins.uberize.LazySourceTransformer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 import org.codehaus.plexus.util.IOUtil;
@@ -33,6 +35,8 @@ import org.codehaus.plexus.util.xml.Xpp3DomWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,25 +47,38 @@ import java.util.TreeMap;
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
 public class PlexusComponents
-        implements Transformer {
+        implements LazySourceTransformer, EntryTransformer {
 
     public static final String COMPONENTS_XML_PATH = "META-INF/plexus/components.xml";
 
+    public Collection getInterests() {
+        return Collections.singleton(COMPONENTS_XML_PATH);
+    }
+
+    public boolean matches(String path) {
+        return true;
+    }
+
     public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
         UberEntry uberEntry = uberEntries.get(COMPONENTS_XML_PATH);
+        if (uberEntry != null && !uberEntry.getSourceList().isEmpty()) {
+            uberEntries.put(COMPONENTS_XML_PATH, transform(uberizer, workDir, uberEntry));
+        }
+    }
 
+    public UberEntry transform(Uberizer uberizer, File workDir, UberEntry uberEntry) throws IOException {
         // This transformer only needs to kick in when there is
         // more than 1 components.xml file that needs to get aggregated.
-        if (uberEntry == null || uberEntry.getSources().size() <= 1) {
-            return;
+        if (uberEntry.getSourceList().size() <= 1) {
+            return uberEntry;
         }
 
         // Load and merge the components from all the files...
-        LinkedHashMap<String, Xpp3Dom> components = merge(uberEntry.getSources());
+        LinkedHashMap<String, Xpp3Dom> components = merge(uberEntry.getSourceList());
 
         // Write the merged components into a new XML file
-        File aggregatedFile = DefaultUberizer.prepareFile(workDir, COMPONENTS_XML_PATH);
-        Writer writer = WriterFactory.newXmlWriter(aggregatedFile);
+        BufferedSource aggregatedFile = new BufferedSource(uberizer.getStagingStore(), workDir, COMPONENTS_XML_PATH);
+        Writer writer = WriterFactory.newXmlWriter(aggregatedFile.openOutputStream());
         try {
             Xpp3Dom dom = new Xpp3Dom("component-set");
             Xpp3Dom componentDom = new Xpp3Dom("components");
@@ -79,8 +96,8 @@ public class PlexusComponents
 
         // Update the entry tree
         UberEntry modEntry = new UberEntry(uberEntry);
-        modEntry.getSources().add(aggregatedFile);
-        uberEntries.put(modEntry.getPath(), modEntry);
+        modEntry.getSourceList().add(aggregatedFile);
+        return modEntry;
     }
 
     private LinkedHashMap<String, Xpp3Dom> merge(List<File> files) throws IOException {
@@ -89,7 +106,7 @@ public class PlexusComponents
 
             Xpp3Dom dom;
             try {
-                dom = Xpp3DomBuilder.build(ReaderFactory.newXmlReader(file));
+                dom = Xpp3DomBuilder.build(ReaderFactory.newXmlReader(DefaultUberizer.openStream(file)));
             } catch (Exception e) {
                 throw new IOException("Error parsing components.xml in " + file);
             }
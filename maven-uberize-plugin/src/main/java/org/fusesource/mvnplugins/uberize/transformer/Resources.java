@@ -19,12 +19,16 @@ package org.fusesource.mvnplugins.uberize.transformer;
  * under the License.
  */
 
-import org.codehaus.plexus.util.SelectorUtils;
+import org.fusesource.mvnplugins.uberize.PathMatcher;
+import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.Collection;
 import java.util.ArrayList;
+import java.util.TreeMap;
 
 /**
  * @author David Blevins
@@ -36,6 +40,10 @@ public class Resources {
     public Set includes;
     public Set excludes;
 
+    // Compiled on demand, they are not part of the configuration.
+    private transient Matcher includeMatcher = new Matcher();
+    private transient Matcher excludeMatcher = new Matcher();
+
     public Resources() {
     }
 
@@ -52,17 +60,55 @@ public class Resources {
         return excludes;
     }
 
+    /**
+     * @return the include patterns, which are used to look up the entries to match.
+     * Null when all the entries have to be checked since case is ignored.
+     */
+    public Collection getInterests() {
+        return ignoreCase ? null : includes;
+    }
+
     public boolean matches(String value) {
 
         return isIncluded(value) && !isExcluded(value);
     }
 
+    /**
+     * Selects the matching entries.  The include patterns are used to look up
+     * the candidate entries so that all the entries don't need to be checked.
+     *
+     * @return the matching entries in path order.
+     */
+    public List<UberEntry> select(TreeMap<String, UberEntry> entries) {
+        Collection<UberEntry> candidates;
+        if (includes == null || includes.size() == 0) {
+            candidates = entries.values();
+        } else {
+            TreeMap<String, UberEntry> included = new TreeMap<String, UberEntry>();
+            for (Iterator iterator = includes.iterator(); iterator.hasNext();) {
+                String pattern = (String) iterator.next();
+                for (UberEntry entry : UberEntryTree.matching(entries, pattern, !ignoreCase)) {
+                    included.put(entry.getPath(), entry);
+                }
+            }
+            candidates = included.values();
+        }
+
+        ArrayList<UberEntry> rc = new ArrayList<UberEntry>();
+        for (UberEntry entry : candidates) {
+            if (!isExcluded(entry.getPath())) {
+                rc.add(entry);
+            }
+        }
+        return rc;
+    }
+
     private boolean isIncluded(String value) {
         if (includes == null || includes.size() == 0) {
             return true;
         }
 
-        return matchPaths(includes, value);
+        return includeMatcher.get(includes, ignoreCase).matches(value);
     }
 
     private boolean isExcluded(String value) {
@@ -70,17 +116,28 @@ public class Resources {
             return false;
         }
 
-        return matchPaths(excludes, value);
+        return excludeMatcher.get(excludes, ignoreCase).matches(value);
     }
 
-    private boolean matchPaths(Collection p, String value) {
-        for (Iterator iterator = p.iterator(); iterator.hasNext();) {
-            String pattern = (String) iterator.next();
-            if (SelectorUtils.matchPath(pattern, value, !ignoreCase)) {
-                return true;
+    /**
+     * The patterns are public fields so the compiled matcher gets
+     * rebuilt whenever they get replaced or resized.
+     */
+    private static class Matcher {
+        private Set patterns;
+        private int size;
+        private boolean ignoreCase;
+        private PathMatcher matcher;
+
+        synchronized PathMatcher get(Set patterns, boolean ignoreCase) {
+            if (matcher == null || this.patterns != patterns || size != patterns.size() || this.ignoreCase != ignoreCase) {
+                this.patterns = patterns;
+                this.size = patterns.size();
+                this.ignoreCase = ignoreCase;
+                matcher = new PathMatcher(patterns, !ignoreCase);
             }
+            return matcher;
         }
-        return false;
     }
 
 }
\ No newline at end of file
@@ -19,16 +19,19 @@ package org.fusesource.mvnplugins.uberize.transformer;
  * under the License.
  */
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.File;
 import java.io.OutputStream;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
 
 import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
+import org.fusesource.mvnplugins.uberize.UberEntryTree;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
 /**
@@ -40,30 +43,30 @@ import org.fusesource.mvnplugins.uberize.Uberizer;
  *
  * @author jvanzyl
  */
-public class ServicesAppender extends AbstractTransformer {
+public class ServicesAppender extends AbstractStreamTransformer {
     private static final String SERVICES_PATH = "META-INF/services";
 
-    private ByteArrayOutputStream data;
+    public Collection getInterests() {
+        return Collections.singleton(SERVICES_PATH + "/**");
+    }
+
+    public boolean matches(String path) {
+        return path.startsWith(SERVICES_PATH + "/");
+    }
 
-    protected boolean matches(String resource) {
-        return resource.startsWith(SERVICES_PATH);
+    protected List<UberEntry> getCandidates(TreeMap<String, UberEntry> uberEntries) {
+        return UberEntryTree.withPrefix(uberEntries, SERVICES_PATH + "/");
     }
 
-    protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException {
-        OutputStream out = new FileOutputStream(target);
-        try {
-            for (File source : entry.getSources()) {
-                InputStream in = new FileInputStream(source);
-                try {
-                    IOUtil.copy( in, out );
-                } finally {
-                    IOUtil.close(in);
-                }
+    protected void merge(Uberizer uberizer, UberEntry entry, OutputStream out) throws IOException {
+        for (File source : entry.getSourceList()) {
+            InputStream in = DefaultUberizer.openStream(source);
+            try {
+                IOUtil.copy( in, out );
+            } finally {
+                IOUtil.close(in);
             }
-        } finally {
-            IOUtil.close(out);
         }
-        return new UberEntry(entry).addSource(target);
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.fusesource.mvnplugins.uberize.transformer;
+
+import org.objectweb.asm.ClassAdapter;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * A class stage which removes the debug information from the classes: the source
+ * file, the line numbers and the local variable tables.
+ */
+public class StripDebugInfo implements ClassStage {
+
+    /**
+     * Keep the source file and line numbers so that stack traces stay readable.
+     */
+    public boolean keepLineNumbers;
+
+    public ClassVisitor createVisitor(ClassVisitor next) {
+        return new ClassAdapter(next) {
+            public void visitSource(String source, String debug) {
+                if (keepLineNumbers) {
+                    super.visitSource(source, null);
+                }
+            }
+
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+                if (mv == null) {
+                    return null;
+                }
+                return new MethodAdapter(mv) {
+                    public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+                    }
+
+                    public void visitLineNumber(int line, Label start) {
+                        if (keepLineNumbers) {
+                            super.visitLineNumber(line, start);
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+}
@@ -23,12 +23,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.File;
 import java.io.OutputStream;
-import java.io.FileOutputStream;
-import java.io.FileInputStream;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 
 import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
@@ -38,43 +37,38 @@ import org.fusesource.mvnplugins.uberize.Uberizer;
  * 
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class TextAggregator extends AbstractPathTransformer
+public class TextAggregator extends AbstractStreamTransformer
 {
     public String eol = "\n";
 
-    protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException {
+    protected void merge(Uberizer uberizer, UberEntry entry, OutputStream target) throws IOException {
         byte eolBytes[] = eol.getBytes("UTF-8");
-        OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
-        int counter=0;
-        try {
-            for (File source : entry.getSources()) {
-                InputStream in = new BufferedInputStream(new FileInputStream(source));
-                try {
-                    boolean endsWithNewline=true;
-                    int c;
-                    while( (c=in.read())>=0 ) {
-                        if( c=='\r' ) {
-                            continue;
-                        }
-                        if( c=='\n' ) {
-                            endsWithNewline = true;
-                            out.write(eolBytes);
-                        } else {
-                            endsWithNewline = false;
-                            out.write(c);
-                        }
+        OutputStream out = new BufferedOutputStream(target);
+        for (File source : entry.getSourceList()) {
+            InputStream in = new BufferedInputStream(DefaultUberizer.openStream(source));
+            try {
+                boolean endsWithNewline=true;
+                int c;
+                while( (c=in.read())>=0 ) {
+                    if( c=='\r' ) {
+                        continue;
                     }
-                    if( !endsWithNewline ) {
+                    if( c=='\n' ) {
+                        endsWithNewline = true;
                         out.write(eolBytes);
+                    } else {
+                        endsWithNewline = false;
+                        out.write(c);
                     }
-                } finally {
-                    IOUtil.close(in);
                 }
+                if( !endsWithNewline ) {
+                    out.write(eolBytes);
+                }
+            } finally {
+                IOUtil.close(in);
             }
-        } finally {
-            IOUtil.close(out);
         }
-        return new UberEntry(entry).addSource(target);        
+        out.flush();
     }
 
 }
@@ -19,6 +19,7 @@ package org.fusesource.mvnplugins.uberize.transformer;
  * under the License.
  */
 
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 import org.codehaus.plexus.util.IOUtil;
@@ -32,8 +33,6 @@ import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -42,25 +41,19 @@ import java.util.Iterator;
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
  */
-public class XmlAppender extends AbstractPathTransformer {
+public class XmlAppender extends AbstractStreamTransformer {
     public static final String XSI_NS = "http://www.w3.org/2001/XMLSchema-instance";
 
-    protected UberEntry process(Uberizer uberizer, UberEntry entry, File target) throws IOException {
+    protected void merge(Uberizer uberizer, UberEntry entry, OutputStream out) throws IOException {
         Document doc=null;
-        OutputStream out = new FileOutputStream(target);
-        try {
-            for (File source : entry.getSources()) {
-                doc = merge(doc, source);
-            }
-            new XMLOutputter(Format.getPrettyFormat()).output(doc, out);
-        } finally {
-            IOUtil.close(out);
+        for (File source : entry.getSourceList()) {
+            doc = merge(doc, source);
         }
-        return new UberEntry(entry).addSource(target);
+        new XMLOutputter(Format.getPrettyFormat()).output(doc, out);
     }
 
     private Document merge(Document doc, File source) throws IOException {
-        InputStream in = new FileInputStream(source);
+        InputStream in = DefaultUberizer.openStream(source);
         try {
             Document sourceDoc;
             try {
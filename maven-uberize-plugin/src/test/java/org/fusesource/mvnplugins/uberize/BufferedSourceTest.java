@@ -0,0 +1,72 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+public class BufferedSourceTest extends TestCase {
+
+    public void testContentStaysInMemoryUntilExtracted() throws Exception {
+        File workDir = new File("target/buffered-source-test");
+        FileUtils.deleteDirectory(workDir);
+
+        BufferedSource source = new BufferedSource(workDir, "META-INF/test.txt");
+        OutputStream out = source.openOutputStream();
+        out.write("hello".getBytes("UTF-8"));
+        out.close();
+
+        assertFalse(source.exists());
+        assertEquals(5, source.length());
+        assertEquals("hello", IOUtil.toString(DefaultUberizer.openStream(source), "UTF-8"));
+
+        source.extract();
+        assertTrue(source.isExtracted());
+        assertEquals("hello", FileUtils.fileRead(source));
+        assertEquals("hello", IOUtil.toString(DefaultUberizer.openStream(source), "UTF-8"));
+    }
+
+    public void testLargeContentSpills() throws Exception {
+        File workDir = new File("target/buffered-source-test");
+        FileUtils.deleteDirectory(workDir);
+
+        BufferedSource source = new BufferedSource(workDir, "large.bin");
+        OutputStream out = source.openOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        int chunks = BufferedSource.SPILL_LIMIT / chunk.length + 1;
+        for (int i = 0; i < chunks; i++) {
+            chunk[0] = (byte) i;
+            out.write(chunk);
+        }
+        out.close();
+
+        assertTrue(source.isExtracted());
+        assertEquals((long) chunks * chunk.length, source.length());
+        byte[] data = IOUtil.toByteArray(DefaultUberizer.openStream(source));
+        assertEquals(chunks * chunk.length, data.length);
+        assertEquals((byte) (chunks - 1), data[(chunks - 1) * chunk.length]);
+    }
+
+}
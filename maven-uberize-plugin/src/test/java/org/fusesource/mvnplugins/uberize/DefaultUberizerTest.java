@@ -20,22 +20,45 @@ package org.fusesource.mvnplugins.uberize;
  */
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Enumeration;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 import java.net.URLClassLoader;
 import java.net.URL;
 
 import junit.framework.TestCase;
 
 import org.fusesource.mvnplugins.uberize.relocation.PackageRelocation;
+import org.fusesource.mvnplugins.uberize.transformer.ApacheNoticeAgreggator;
+import org.fusesource.mvnplugins.uberize.transformer.ManifestEditor;
 import org.fusesource.mvnplugins.uberize.transformer.PlexusComponents;
 import org.fusesource.mvnplugins.uberize.transformer.ClassShader;
+import org.fusesource.mvnplugins.uberize.transformer.ClassStage;
+import org.fusesource.mvnplugins.uberize.transformer.StripDebugInfo;
+import org.fusesource.mvnplugins.uberize.transformer.TextAggregator;
+import org.fusesource.mvnplugins.uberize.transformer.XmlAppender;
+import org.fusesource.mvnplugins.uberize.transformer.RemoveResource;
+import org.fusesource.mvnplugins.uberize.transformer.PickResource;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.commons.EmptyVisitor;
 import org.fusesource.mvnplugins.uberize.transformer.Resources;
 import org.codehaus.plexus.util.*;
 import org.codehaus.plexus.logging.console.ConsoleLogger;
@@ -85,6 +108,55 @@ public class DefaultUberizerTest extends TestCase {
         assertEquals("foo.bar/baz", c.getDeclaredField("CONSTANT").get(o));
     }
 
+    public void testShaderWithStages() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-artifact-1.0-SNAPSHOT.jar"));
+
+        List transformers = new ArrayList();
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org.fusesource.mvnplugins.uberize", null, null)
+        };
+        shader.stages = new ClassStage[]{new StripDebugInfo()};
+        transformers.add(shader);
+
+        File uberJar = new File(base, "testShaderWithStages.jar");
+        createUberizer().uberize(workDir, sources, uberJar, new ArrayList(), transformers);
+
+        JarFile jar = new JarFile(uberJar);
+        try {
+            JarEntry entry = jar.getJarEntry("hidden/org/fusesource/mvnplugins/uberize/Lib.class");
+            final int[] debugInfo = new int[1];
+            new ClassReader(jar.getInputStream(entry)).accept(new EmptyVisitor() {
+                public void visitSource(String source, String debug) {
+                    debugInfo[0]++;
+                }
+
+                public void visitLineNumber(int line, Label start) {
+                    debugInfo[0]++;
+                }
+
+                public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+                    debugInfo[0]++;
+                }
+            }, 0);
+            assertEquals(0, debugInfo[0]);
+
+            // The stripped attributes should not leave their constants behind.
+            String constants = new String(IOUtil.toByteArray(jar.getInputStream(entry)), "ISO-8859-1");
+            String[] stripped = {"SourceFile", "Lib.java", "LineNumberTable", "LocalVariableTable", "packageName"};
+            for (String constant : stripped) {
+                assertEquals(constant, -1, constants.indexOf(constant));
+            }
+        } finally {
+            jar.close();
+        }
+
+        URLClassLoader cl = new URLClassLoader(new URL[]{uberJar.toURI().toURL()});
+        Class c = cl.loadClass("hidden.org.fusesource.mvnplugins.uberize.Lib");
+        assertEquals("foo.bar/baz", c.getDeclaredField("CONSTANT").get(c.newInstance()));
+    }
+
     public void testShaderWithDefaultShadedPattern() throws Exception {
         shaderWithPattern(null, new File(base, "foo-default.jar"), EXCLUDES);
     }
@@ -154,6 +226,570 @@ public class DefaultUberizerTest extends TestCase {
         assertTrue( contnent.contains("<implementation>org.uber.component.DefaultPizzaComponent</implementation>") );
     }
 
+    public void testLazyExtraction() throws Exception {
+        Uberizer uberizer = createUberizer();
+
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        List transformers = new ArrayList();
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org/component", "org/uber/component", null)
+        };
+        shader.resources = new Resources();
+        shader.resources.includes = new HashSet();
+        shader.resources.includes.add("META-INF/plexus/components.xml");
+        transformers.add(new PlexusComponents());
+        transformers.add(shader);
+
+        UberizeOptions options = new UberizeOptions();
+        options.setLazyExtraction(true);
+
+        File uberJar = new File(base, "testLazyExtraction.jar");
+        uberizer.uberize(workDir, sources, uberJar, new ArrayList(), transformers, options);
+
+        // Nothing should have been extracted since all the transformers can stream their sources.
+        assertFalse(new File(workDir, "test-project-1.0-SNAPSHOT.jar").exists());
+        assertFalse(new File(workDir, "plexus-utils-1.4.1.jar").exists());
+
+        JarFile jar = new JarFile(uberJar);
+        assertNotNull(jar.getEntry("org/codehaus/plexus/util/FileUtils.class"));
+        assertNotNull(jar.getEntry("org/uber/component/DefaultPizzaComponent.class"));
+        InputStream is = jar.getInputStream(jar.getEntry("META-INF/plexus/components.xml"));
+        String content = IOUtil.toString(is);
+        assertTrue( content.contains("<role>org.uber.component.PizzaComponent</role>") );
+        jar.close();
+    }
+
+    public void testSourcesChangedByLazyTransformersGetExtracted() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        TextAggregator properties = new TextAggregator();
+        properties.includes = Collections.singleton("META-INF/maven/**/pom.properties");
+        FileReader before = new FileReader();
+        FileReader after = new FileReader();
+        List transformers = new ArrayList();
+        transformers.add(before);
+        transformers.add(properties);
+        transformers.add(after);
+
+        UberizeOptions options = new UberizeOptions();
+        options.setLazyExtraction(true);
+        File uberJar = new File(base, "testSourcesChangedByLazyTransformers.jar");
+        createUberizer().uberize(workDir, sources, uberJar, new ArrayList(), transformers, options);
+
+        // The aggregated sources only exist on the heap until an eager transformer needs them.
+        assertEquals(2, before.read.size());
+        assertEquals(before.read, after.read);
+    }
+
+    /**
+     * An entry transformer which reads its sources as plain files.
+     */
+    private static class FileReader implements EntryTransformer {
+        final ArrayList<String> read = new ArrayList<String>();
+
+        public Collection getInterests() {
+            return Collections.singleton("META-INF/maven/**/pom.properties");
+        }
+
+        public boolean matches(String path) {
+            return true;
+        }
+
+        public UberEntry transform(Uberizer uberizer, File workDir, UberEntry entry) throws IOException {
+            for (File source : entry.getSourceList()) {
+                read.add(FileUtils.fileRead(source.getPath()));
+            }
+            return entry;
+        }
+
+        public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
+            for (UberEntry entry : new ArrayList<UberEntry>(uberEntries.values())) {
+                transform(uberizer, workDir, entry);
+            }
+        }
+    }
+
+    public void testFingerprintIgnoresMatcherCaches() throws Exception {
+        Resources resources = new Resources(new HashSet(Arrays.asList(new String[]{"**/*.xml"})), new HashSet(Arrays.asList(new String[]{"META-INF/**"})));
+        String before = DefaultUberizer.fingerprint(resources);
+        assertTrue(resources.matches("org/test/components.xml"));
+        assertFalse(resources.matches("META-INF/plexus/components.xml"));
+        assertEquals(before, DefaultUberizer.fingerprint(resources));
+
+        resources.excludes.clear();
+        assertFalse(before.equals(DefaultUberizer.fingerprint(resources)));
+    }
+
+    public void testContentEqualsWhenChecksumsCollide() throws Exception {
+        File dir = new File(base, "content-equals");
+        dir.mkdirs();
+        // Both have the same size and CRC-32.
+        File a = new File(dir, "a.txt");
+        FileUtils.fileWrite(a.getPath(), "plumless");
+        File b = new File(dir, "b.txt");
+        FileUtils.fileWrite(b.getPath(), "buckeroo");
+        File c = new File(dir, "c.txt");
+        FileUtils.fileWrite(c.getPath(), "plumless");
+
+        DefaultUberizer uberizer = createUberizer();
+        assertFalse(uberizer.contentEquals(a, b));
+        assertTrue(uberizer.contentEquals(a, c));
+    }
+
+    public void testIncrementalRun() throws Exception {
+        File incrementalDir = new File(base, "uber-incremental");
+        FileUtils.deleteDirectory(incrementalDir);
+        File projectJar = new File(base, "incremental/test-project-1.0-SNAPSHOT.jar");
+        FileUtils.copyFile(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"), projectJar);
+
+        Set sources = new LinkedHashSet();
+        sources.add(projectJar);
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        List transformers = new ArrayList();
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org/component", "org/uber/component", null)
+        };
+        transformers.add(shader);
+
+        UberizeOptions options = new UberizeOptions();
+        options.setIncremental(true);
+        File uberJar = new File(base, "testIncrementalRun.jar");
+        createUberizer().uberize(incrementalDir, sources, uberJar, new ArrayList(), transformers, options);
+
+        // Leave markers to find out what gets regenerated by the next run.
+        File projectMarker = new File(incrementalDir, "test-project-1.0-SNAPSHOT.jar/marker.txt");
+        File utilsMarker = new File(incrementalDir, "plexus-utils-1.4.1.jar/marker.txt");
+        FileUtils.fileWrite(projectMarker.getPath(), "marker");
+        FileUtils.fileWrite(utilsMarker.getPath(), "marker");
+        File projectClass = new File(incrementalDir, "transformer-0/org/uber/component/DefaultPizzaComponent.class");
+        File utilsClass = new File(incrementalDir, "transformer-0/org/codehaus/plexus/util/FileUtils.class");
+        assertTrue(projectClass.setLastModified(0));
+        assertTrue(utilsClass.setLastModified(0));
+        File stale = new File(incrementalDir, "stale.jar");
+        stale.mkdirs();
+
+        assertTrue(projectJar.setLastModified(projectJar.lastModified() + 10000));
+        createUberizer().uberize(incrementalDir, sources, uberJar, new ArrayList(), transformers, options);
+
+        assertFalse(projectMarker.exists());
+        assertTrue(utilsMarker.exists());
+        assertTrue(projectClass.lastModified() != 0);
+        assertEquals(0, utilsClass.lastModified());
+        assertFalse(stale.exists());
+
+        File fullJar = new File(base, "testIncrementalRunFull.jar");
+        createUberizer().uberize(workDir, sources, fullJar, new ArrayList(), transformers, new UberizeOptions());
+        assertSameEntries(fullJar, uberJar);
+    }
+
+    public void testClassShaderCache() throws Exception {
+        File cacheDir = new File(base, "class-cache");
+        FileUtils.deleteDirectory(cacheDir);
+
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        List transformers = new ArrayList();
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org/component", "org/uber/component", null)
+        };
+        transformers.add(shader);
+
+        UberizeOptions options = new UberizeOptions();
+        options.setCacheDirectory(cacheDir);
+        File uberJar = new File(base, "testClassShaderCache.jar");
+        createUberizer().uberize(workDir, sources, uberJar, new ArrayList(), transformers, options);
+
+        // There should be a cache jar per source jar.
+        File[] cacheJars = new File(cacheDir, "class-shader").listFiles();
+        assertEquals(2, cacheJars.length);
+
+        // Replace a cached class to check the next build uses it.
+        String path = "org/component/DefaultPizzaComponent.class";
+        File cacheJar = null;
+        for (File file : cacheJars) {
+            JarFile jar = new JarFile(file);
+            if (jar.getEntry(path) != null) {
+                cacheJar = file;
+            }
+            jar.close();
+        }
+        assertNotNull(cacheJar);
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(cacheJar));
+        os.putNextEntry(new JarEntry(path));
+        os.write("cached".getBytes("UTF-8"));
+        os.close();
+
+        createUberizer().uberize(workDir, sources, uberJar, new ArrayList(), transformers, options);
+        JarFile jar = new JarFile(uberJar);
+        try {
+            String content = IOUtil.toString(jar.getInputStream(jar.getEntry("org/uber/component/DefaultPizzaComponent.class")));
+            assertEquals("cached", content);
+            assertNotNull(jar.getEntry("org/codehaus/plexus/util/FileUtils.class"));
+        } finally {
+            jar.close();
+        }
+
+        // The class missing from the cache jar should have been added to it.
+        jar = new JarFile(cacheJar);
+        try {
+            assertEquals("cached", IOUtil.toString(jar.getInputStream(jar.getEntry(path))));
+            assertNotNull(jar.getEntry("org/component/PizzaComponent.class"));
+        } finally {
+            jar.close();
+        }
+        assertEquals(2, new File(cacheDir, "class-shader").listFiles().length);
+    }
+
+    public void testOrigin() throws Exception {
+        final File projectJar = new File("src/test/jars/test-project-1.0-SNAPSHOT.jar");
+        Set sources = new LinkedHashSet();
+        sources.add(projectJar);
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        List transformers = new ArrayList();
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org/component", "org/uber/component", null)
+        };
+        transformers.add(shader);
+        final ArrayList<JarEntryFile> origins = new ArrayList<JarEntryFile>();
+        transformers.add(new Transformer() {
+            public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
+                UberEntry entry = uberEntries.get("org/uber/component/DefaultPizzaComponent.class");
+                origins.add(uberizer.getOrigin(entry.getSourceList().get(0)));
+            }
+        });
+
+        File uberJar = new File(base, "testOrigin.jar");
+        createUberizer().uberize(workDir, sources, uberJar, new ArrayList(), transformers);
+
+        assertEquals(1, origins.size());
+        assertEquals(projectJar.getCanonicalFile(), origins.get(0).getJar().getCanonicalFile());
+        assertEquals("org/component/DefaultPizzaComponent.class", origins.get(0).getEntryName());
+    }
+
+    public void testConcurrentExtractionMatchesSerial() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+        sources.add(new File("src/test/jars/test-artifact-1.0-SNAPSHOT.jar"));
+
+        UberizeOptions options = new UberizeOptions();
+        File serialJar = new File(base, "testSerialExtraction.jar");
+        createUberizer().uberize(workDir, sources, serialJar, new ArrayList(), new ArrayList(), options);
+
+        options.setExtractThreads(4);
+        options.setCompressThreads(4);
+        File concurrentJar = new File(base, "testConcurrentExtraction.jar");
+        createUberizer().uberize(workDir, sources, concurrentJar, new ArrayList(), new ArrayList(), options);
+
+        assertSameEntries(serialJar, concurrentJar);
+    }
+
+    public void testConcurrentShadingMatchesSerial() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        UberizeOptions options = new UberizeOptions();
+        File serialJar = new File(base, "testSerialShading.jar");
+        createUberizer().uberize(workDir, sources, serialJar, new ArrayList(), shaders(), options);
+
+        options.setShadeThreads(4);
+        File concurrentJar = new File(base, "testConcurrentShading.jar");
+        createUberizer().uberize(workDir, sources, concurrentJar, new ArrayList(), shaders(), options);
+
+        assertSameEntries(serialJar, concurrentJar);
+    }
+
+    public void testGroupedEntryTransformersMatchSequential() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        File groupedJar = new File(base, "testGroupedEntryTransformers.jar");
+        createUberizer().uberize(workDir, sources, groupedJar, new ArrayList(), entryTransformers(false));
+
+        File sequentialJar = new File(base, "testSequentialEntryTransformers.jar");
+        createUberizer().uberize(workDir, sources, sequentialJar, new ArrayList(), entryTransformers(true));
+
+        assertSameEntries(sequentialJar, groupedJar);
+        JarFile jar = new JarFile(groupedJar);
+        try {
+            assertNull(jar.getEntry("META-INF/NOTES.TXT"));
+        } finally {
+            jar.close();
+        }
+    }
+
+    public void testConcurrentTransformersMatchSerial() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        UberizeOptions options = new UberizeOptions();
+        File serialJar = new File(base, "testSerialTransformers.jar");
+        createUberizer().uberize(workDir, sources, serialJar, new ArrayList(), independentTransformers(), options);
+
+        options.setTransformThreads(4);
+        File concurrentJar = new File(base, "testConcurrentTransformers.jar");
+        createUberizer().uberize(workDir, sources, concurrentJar, new ArrayList(), independentTransformers(), options);
+
+        assertSameEntries(serialJar, concurrentJar);
+    }
+
+    private static List independentTransformers() {
+        TextAggregator properties = new TextAggregator();
+        properties.includes = Collections.singleton("**/pom.properties");
+        XmlAppender poms = new XmlAppender();
+        poms.includes = Collections.singleton("**/pom.xml");
+        RemoveResource notes = new RemoveResource();
+        notes.includes = Collections.singleton("META-INF/NOTES.TXT");
+        PickResource pick = new PickResource();
+        pick.includes = Collections.singleton("org/codehaus/plexus/util/**");
+
+        List transformers = new ArrayList();
+        transformers.add(properties);
+        transformers.add(poms);
+        transformers.add(notes);
+        transformers.add(new PlexusComponents());
+        transformers.add(pick);
+        return transformers;
+    }
+
+    /**
+     * @param sequential wraps each of the transformers so they get applied one after the other
+     */
+    private static List entryTransformers(boolean sequential) {
+        TextAggregator properties = new TextAggregator();
+        properties.includes = Collections.singleton("META-INF/maven/**/pom.properties");
+        XmlAppender poms = new XmlAppender();
+        poms.includes = Collections.singleton("**/pom.xml");
+        RemoveResource notes = new RemoveResource();
+        notes.includes = Collections.singleton("META-INF/NOTES.TXT");
+        PickResource pick = new PickResource();
+        pick.pick = "last";
+        pick.includes = Collections.singleton("META-INF/**");
+
+        List transformers = new ArrayList();
+        for (final Transformer transformer : new Transformer[]{properties, poms, notes, new PlexusComponents(), pick}) {
+            if (sequential) {
+                transformers.add(new LazySourceTransformer() {
+                    public void process(Uberizer uberizer, File workDir, TreeMap<String, UberEntry> uberEntries) throws IOException {
+                        transformer.process(uberizer, workDir, uberEntries);
+                    }
+                });
+            } else {
+                transformers.add(transformer);
+            }
+        }
+        return transformers;
+    }
+
+    public void testConcurrentRunsOfOneUberizer() throws Exception {
+        final Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        File serialJar = new File(base, "testSerialRun.jar");
+        createUberizer().uberize(workDir, sources, serialJar, new ArrayList(), shaders());
+
+        final DefaultUberizer uberizer = createUberizer();
+        final File[] jars = new File[4];
+        ExecutorService executor = Executors.newFixedThreadPool(jars.length);
+        try {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < jars.length; i++) {
+                final File runDir = new File(base, "uber-run-" + i);
+                jars[i] = new File(base, "testConcurrentRun-" + i + ".jar");
+                final File jar = jars[i];
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        uberizer.uberize(runDir, sources, jar, new ArrayList(), shaders());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        for (File jar : jars) {
+            assertSameEntries(serialJar, jar);
+        }
+    }
+
+    public void testSpilledSourcesMatchHeap() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+        sources.add(new File("src/test/jars/test-artifact-1.0-SNAPSHOT.jar"));
+
+        UberizeOptions options = new UberizeOptions();
+        options.setLazyExtraction(true);
+        options.setSourceSpillThreshold(-1);
+        File heapJar = new File(base, "testHeapSources.jar");
+        List transformers = shaders();
+        transformers.addAll(entryTransformers(false));
+        createUberizer().uberize(workDir, sources, heapJar, new ArrayList(), transformers, options);
+
+        options.setSourceSpillThreshold(10);
+        File spilledJar = new File(base, "testSpilledSources.jar");
+        transformers = shaders();
+        transformers.addAll(entryTransformers(false));
+        createUberizer().uberize(workDir, sources, spilledJar, new ArrayList(), transformers, options);
+
+        assertSameEntries(heapJar, spilledJar);
+    }
+
+    public void testStagingStoresMatchDirectory() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+        sources.add(new File("src/test/jars/test-artifact-1.0-SNAPSHOT.jar"));
+
+        UberizeOptions options = new UberizeOptions();
+        File directoryJar = new File(base, "testDirectoryStore.jar");
+        createUberizer().uberize(workDir, sources, directoryJar, new ArrayList(), stagedTransformers(), options);
+        assertFalse(FileUtils.getFiles(workDir, "transformer-*/META-INF/NOTICE", null).isEmpty());
+
+        String[] stores = new String[]{StagingStore.MEMORY, StagingStore.PACK};
+        for (String store : stores) {
+            options.setStagingStore(store);
+            File storeJar = new File(base, "test-" + store + "-store.jar");
+            createUberizer().uberize(workDir, sources, storeJar, new ArrayList(), stagedTransformers(), options);
+            assertSameEntries(directoryJar, storeJar);
+            // The generated files only got staged.
+            assertTrue(FileUtils.getFiles(workDir, "transformer-*/META-INF/NOTICE", null).isEmpty());
+            assertTrue(FileUtils.getFiles(workDir, "transformer-*/META-INF/MANIFEST.MF", null).isEmpty());
+        }
+
+        // The pack file does not outlive the run.
+        for (String name : workDir.list()) {
+            assertFalse(name, name.endsWith(".pack"));
+        }
+    }
+
+    public void testBackgroundCleanup() throws Exception {
+        Set sources = new LinkedHashSet();
+        sources.add(new File("src/test/jars/test-project-1.0-SNAPSHOT.jar"));
+        sources.add(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+
+        File cleanupDir = new File(base, "cleanup-work");
+        FileUtils.deleteDirectory(cleanupDir);
+        UberizeOptions options = new UberizeOptions();
+        File expectedJar = new File(base, "testForegroundCleanup.jar");
+        createUberizer().uberize(cleanupDir, sources, expectedJar, new ArrayList(), shaders(), options);
+
+        // Leave a stale file and a directory abandoned by an earlier run behind.
+        File stale = new File(cleanupDir, "stale/file.txt");
+        stale.getParentFile().mkdirs();
+        FileUtils.fileWrite(stale.getPath(), "stale");
+        File abandoned = new File(base, "cleanup-work.old-1/file.txt");
+        abandoned.getParentFile().mkdirs();
+        FileUtils.fileWrite(abandoned.getPath(), "abandoned");
+
+        options.setBackgroundCleanup(true);
+        File actualJar = new File(base, "testBackgroundCleanup.jar");
+        createUberizer().uberize(cleanupDir, sources, actualJar, new ArrayList(), shaders(), options);
+
+        assertSameEntries(expectedJar, actualJar);
+        assertFalse(stale.exists());
+        for (String name : base.list()) {
+            assertFalse(name, name.startsWith("cleanup-work.old-"));
+        }
+    }
+
+    public void testCompressionPolicyAppliesToCopiedEntries() throws Exception {
+        Set sources = new LinkedHashSet();
+        File sourceJar = new File("src/test/jars/plexus-utils-1.4.1.jar");
+        sources.add(sourceJar);
+        String name = "org/codehaus/plexus/util/FileUtils.class";
+
+        UberizeOptions options = new UberizeOptions();
+        options.setLazyExtraction(true);
+        File defaultJar = new File(base, "testDefaultCompression.jar");
+        createUberizer().uberize(workDir, sources, defaultJar, new ArrayList(), new ArrayList(), options);
+
+        options.setCompressionPolicy(CompressionPolicy.createFast());
+        File fastJar = new File(base, "testFastCompression.jar");
+        createUberizer().uberize(workDir, sources, fastJar, new ArrayList(), new ArrayList(), options);
+
+        JarFile source = new JarFile(sourceJar);
+        JarFile copied = new JarFile(defaultJar);
+        JarFile stored = new JarFile(fastJar);
+        try {
+            // The default policy copies the deflated entries as is.
+            assertEquals(source.getEntry(name).getCompressedSize(), copied.getEntry(name).getCompressedSize());
+            for (Enumeration<JarEntry> i = stored.entries(); i.hasMoreElements();) {
+                JarEntry entry = i.nextElement();
+                if (!entry.isDirectory()) {
+                    assertEquals(entry.getName(), JarEntry.STORED, entry.getMethod());
+                }
+            }
+        } finally {
+            source.close();
+            copied.close();
+            stored.close();
+        }
+        assertSameEntries(defaultJar, fastJar);
+    }
+
+    private static List stagedTransformers() {
+        List transformers = shaders();
+        transformers.addAll(entryTransformers(false));
+        transformers.add(new ApacheNoticeAgreggator());
+        transformers.add(new ManifestEditor());
+        return transformers;
+    }
+
+    private static List shaders() {
+        ClassShader shader = new ClassShader();
+        shader.relocations = new PackageRelocation[]{
+            new PackageRelocation("org.codehaus.plexus.util.xml", "shaded.xml", null),
+            new PackageRelocation("org.codehaus.plexus.util", "shaded.util", Arrays.asList(EXCLUDES))
+        };
+        List transformers = new ArrayList();
+        transformers.add(shader);
+        return transformers;
+    }
+
+    static void assertSameEntries(File expected, File actual) throws Exception {
+        JarFile e = new JarFile(expected);
+        JarFile a = new JarFile(actual);
+        try {
+            ArrayList<String> names = new ArrayList<String>();
+            for (Enumeration<JarEntry> i = e.entries(); i.hasMoreElements();) {
+                names.add(i.nextElement().getName());
+            }
+            ArrayList<String> actualNames = new ArrayList<String>();
+            for (Enumeration<JarEntry> i = a.entries(); i.hasMoreElements();) {
+                actualNames.add(i.nextElement().getName());
+            }
+            assertEquals(names, actualNames);
+            for (String name : names) {
+                assertTrue(name, IOUtil.contentEquals(e.getInputStream(e.getEntry(name)), a.getInputStream(a.getEntry(name))));
+            }
+        } finally {
+            e.close();
+            a.close();
+        }
+    }
+
     private DefaultUberizer createUberizer() {
         final DefaultUberizer rc = new DefaultUberizer();
         rc.enableLogging(new ConsoleLogger(Logger.LEVEL_INFO, "uberizer"));
@@ -0,0 +1,60 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class OutputDirectoryTest extends TestCase {
+
+    public void testWritesNestedFiles() throws Exception {
+        File workDir = new File("target/output-directory-test");
+        FileUtils.deleteDirectory(workDir);
+
+        OutputDirectory directory = new OutputDirectory(workDir);
+        File a = directory.writeFile("org/test/A.txt", new ByteArrayInputStream("a".getBytes("UTF-8")));
+        File b = directory.writeFile("org/test/B.txt", "b".getBytes("UTF-8"));
+        File c = directory.writeFile("./org2.txt", "c".getBytes("UTF-8"));
+
+        assertEquals(new File(workDir, "org/test/A.txt").getCanonicalFile(), a);
+        assertEquals("a", FileUtils.fileRead(a));
+        assertEquals("b", FileUtils.fileRead(b));
+        assertEquals("c", FileUtils.fileRead(c));
+    }
+
+    public void testRejectsPathsOutsideTheDirectory() throws Exception {
+        String[] paths = new String[]{"", "/etc/passwd", "\\temp\\x", "C:/x", "../x", "a/../../x", "a/..", "a\\..\\..\\x"};
+        for (String path : paths) {
+            try {
+                OutputDirectory.checkPath(path);
+                fail("Expected the path to be rejected: " + path);
+            } catch (IOException expected) {
+            }
+        }
+        OutputDirectory.checkPath("a/b..c/..d/e.txt");
+        OutputDirectory.checkPath("a/./b.txt");
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.SelectorUtils;
+
+public class PathMatcherTest extends TestCase {
+
+    static final String[] PATTERNS = {
+            "META-INF/MANIFEST.MF", "meta-inf/manifest.mf", "**", "*", "**/*", "**/*.class", "**/*.tar.gz",
+            "org/**", "org/**/*.class", "org/*/Foo?.class", "**/impl/**", "/org/**", "org/**/impl",
+            "org/foo/**/bar/**/*.xml", "?rg/*", "org/f*o*", "**/**/Foo.class", "org//foo/Bar.class",
+            "META-INF/services/**", "org/foo/*Test*.class", "", "org/foo/Bar.class",
+    };
+
+    static final String[] PATHS = {
+            "META-INF/MANIFEST.MF", "meta-inf/Manifest.MF", "org", "org/", "/org/foo/Bar.class",
+            "org/foo/Bar.class", "org/foo/Foo1.class", "org/foo/Foo12.class", "org/foo/impl/Baz.class",
+            "org/foo/impl", "org/foo/a/bar/b/c/x.xml", "org/foo/bar/x.xml", "org/foo/x.xml", "lib/a.tar.gz",
+            "org//foo/Bar.class", "org/foo/MyTestCase.class", "Foo.class", "a/b/Foo.class", "",
+            "META-INF/services/javax.xml.Foo", "org/fooo", "org/fo", "ORG/FOO/BAR.CLASS",
+    };
+
+    public void testMatchesLikeSelectorUtils() {
+        for (int caseSensitive = 0; caseSensitive < 2; caseSensitive++) {
+            for (String pattern : PATTERNS) {
+                PathMatcher matcher = new PathMatcher(Collections.singleton(pattern), caseSensitive == 1);
+                for (String path : PATHS) {
+                    assertEquals(pattern + " ~ " + path, SelectorUtils.matchPath(pattern, path, caseSensitive == 1), matcher.matches(path));
+                }
+            }
+        }
+
+        List<String> all = Arrays.asList(PATTERNS).subList(4, PATTERNS.length);
+        PathMatcher matcher = new PathMatcher(all);
+        for (String path : PATHS) {
+            boolean expected = false;
+            for (String pattern : all) {
+                expected |= SelectorUtils.matchPath(pattern, path, true);
+            }
+            assertEquals(path, expected, matcher.matches(path));
+        }
+        assertFalse(new PathMatcher(new ArrayList<String>()).matches("org/foo/Bar.class"));
+    }
+
+}
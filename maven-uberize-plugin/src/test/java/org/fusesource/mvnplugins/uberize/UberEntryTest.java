@@ -0,0 +1,81 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class UberEntryTest extends TestCase {
+
+    public void testSources() {
+        File a = new File("a");
+        File b = new File("b");
+        File c = new File("c");
+
+        UberEntry entry = new UberEntry("path");
+        List<File> sources = entry.getSourceList();
+        assertTrue(sources.isEmpty());
+
+        entry.addSource(b);
+        assertEquals(Arrays.asList(b), entry.getSourceList());
+        sources.add(0, a);
+        sources.add(c);
+        assertEquals(Arrays.asList(a, b, c), entry.getSourceList());
+
+        entry.getSourceList().remove(1);
+        assertEquals(Arrays.asList(a, c), entry.getSourceList());
+        entry.getSourceList().remove(a);
+        assertEquals(Arrays.asList(c), entry.getSourceList());
+        entry.getSourceList().clear();
+        assertTrue(entry.getSourceList().isEmpty());
+
+        entry.getSourceList().addAll(Arrays.asList(a, b));
+        assertEquals(Arrays.asList(a, b), entry.getSourceList());
+    }
+
+    public void testArrayListSources() {
+        File a = new File("a");
+        File b = new File("b");
+
+        UberEntry entry = new UberEntry("path").addSource(a);
+        ArrayList<File> sources = entry.getSources();
+        assertSame(sources, entry.getSources());
+        sources.add(b);
+        assertEquals(Arrays.asList(a, b), entry.getSourceList());
+        entry.getSourceList().remove(0);
+        assertEquals(Arrays.asList(b), sources);
+    }
+
+    public void testHistory() {
+        UberEntry original = new UberEntry("path", false);
+        UberEntry update = new UberEntry("moved", original);
+        assertNull(update.getPrevious());
+
+        original = new UberEntry("path", true);
+        update = new UberEntry(new UberEntry("moved", original));
+        assertSame(original, update.getPrevious().getPrevious());
+    }
+
+}
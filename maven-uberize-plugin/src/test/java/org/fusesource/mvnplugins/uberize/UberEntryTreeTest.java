@@ -0,0 +1,126 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.SelectorUtils;
+
+public class UberEntryTreeTest extends TestCase {
+
+    static final String[] PATHS = {
+        "META-INF",
+        "META-INF/LICENSE.txt",
+        "META-INF/MANIFEST.MF",
+        "META-INF/Notice",
+        "META-INF/services/org.acme.Service",
+        "META-INF/spring.handlers",
+        "meta-inf/NOTICE",
+        "org/acme/Foo.class",
+        "org/acme/Foo$1.class",
+        "org/acme/impl/Bar.class",
+        "org/acme/data.tar.gz",
+        "org/acme.class/readme",
+        "Root.class",
+    };
+
+    static final String[] PATTERNS = {
+        "**/*.class",
+        "**/*.gz",
+        "**/*.tar.gz",
+        "META-INF/**",
+        "META-INF/services/*",
+        "META-INF/MANIFEST.MF",
+        "org/acme/*.class",
+        "org/*/impl/**",
+        "*.class",
+        "**/readme",
+        "org/acme/Foo?1.class",
+    };
+
+    public void testMatching() {
+        UberEntryTree tree = new UberEntryTree();
+        TreeMap<String, UberEntry> plain = new TreeMap<String, UberEntry>();
+        for (String path : PATHS) {
+            tree.put(path, new UberEntry(path));
+            plain.put(path, new UberEntry(path));
+        }
+
+        for (String pattern : PATTERNS) {
+            for (boolean caseSensitive : new boolean[]{true, false}) {
+                List<String> expected = new ArrayList<String>();
+                for (String path : plain.keySet()) {
+                    if (SelectorUtils.matchPath(pattern, path, caseSensitive)) {
+                        expected.add(path);
+                    }
+                }
+                assertEquals(pattern, expected, paths(UberEntryTree.matching(tree, pattern, caseSensitive)));
+                assertEquals(pattern, expected, paths(UberEntryTree.matching(plain, pattern, caseSensitive)));
+            }
+        }
+    }
+
+    public void testLookups() {
+        UberEntryTree tree = new UberEntryTree();
+        for (String path : PATHS) {
+            tree.put(path, new UberEntry(path));
+        }
+
+        assertEquals(list("META-INF/Notice", "meta-inf/NOTICE"), paths(UberEntryTree.equalsIgnoreCase(tree, "META-INF/NOTICE")));
+        assertEquals(list("META-INF/services/org.acme.Service"), paths(UberEntryTree.withPrefix(tree, "META-INF/services/")));
+        assertEquals(list("org/acme/data.tar.gz"), paths(UberEntryTree.withExtension(tree, "gz")));
+
+        // The index has to follow removals, including the ones done through iterators.
+        tree.remove("org/acme/Foo.class");
+        for (Iterator<String> i = tree.keySet().iterator(); i.hasNext();) {
+            if (i.next().equals("Root.class")) {
+                i.remove();
+            }
+        }
+        assertEquals(list("org/acme/Foo$1.class", "org/acme/impl/Bar.class"), paths(UberEntryTree.withExtension(tree, "class")));
+
+        UberEntryTree copy = (UberEntryTree) tree.clone();
+        copy.put("Other.class", new UberEntry("Other.class"));
+        assertEquals(2, UberEntryTree.withExtension(tree, "class").size());
+        assertEquals(3, UberEntryTree.withExtension(copy, "class").size());
+    }
+
+    private static List<String> list(String... values) {
+        ArrayList<String> rc = new ArrayList<String>();
+        for (String value : values) {
+            rc.add(value);
+        }
+        return rc;
+    }
+
+    private static List<String> paths(List<UberEntry> entries) {
+        ArrayList<String> rc = new ArrayList<String>();
+        for (UberEntry entry : entries) {
+            rc.add(entry.getPath());
+        }
+        return rc;
+    }
+
+}
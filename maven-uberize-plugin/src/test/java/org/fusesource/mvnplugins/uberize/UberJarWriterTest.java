@@ -0,0 +1,222 @@
+package org.fusesource.mvnplugins.uberize;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.IOUtil;
+
+public class UberJarWriterTest extends TestCase {
+
+    File base = new File("target");
+    File sourceJar = new File("src/test/jars/plexus-utils-1.4.1.jar");
+
+    public void testRawAndDeflatedEntries() throws Exception {
+        String rawName = "org/codehaus/plexus/util/FileUtils.class";
+        HashMap<String, RawZipEntry> entries = RawZipEntry.readCentralDirectory(sourceJar);
+        assertNotNull(entries);
+        RawZipEntry raw = entries.get(rawName);
+        assertNotNull(raw);
+
+        File jar = new File(base, "testRawAndDeflatedEntries.jar");
+        UberJarWriter writer = new UberJarWriter(jar);
+        try {
+            writer.putDirectory("org/");
+            writer.putEntry("org/hello.txt", new ByteArrayInputStream("Hello World".getBytes("UTF-8")));
+            assertTrue(writer.putRaw("org/Copied.class", sourceJar, raw));
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ZipFile expected = new ZipFile(sourceJar);
+        ZipFile actual = new ZipFile(jar);
+        try {
+            assertEquals(3, actual.size());
+            assertEquals("Hello World", IOUtil.toString(actual.getInputStream(actual.getEntry("org/hello.txt"))));
+            ZipEntry copied = actual.getEntry("org/Copied.class");
+            assertEquals(raw.crc, copied.getCrc());
+            assertTrue(IOUtil.contentEquals(
+                    expected.getInputStream(expected.getEntry(rawName)),
+                    actual.getInputStream(copied)));
+        } finally {
+            expected.close();
+            actual.close();
+        }
+
+        // Streaming readers rely on the local headers and data descriptors.
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(jar));
+        try {
+            int count = 0;
+            while (zis.getNextEntry() != null) {
+                IOUtil.toByteArray(zis);
+                count++;
+            }
+            assertEquals(3, count);
+        } finally {
+            zis.close();
+        }
+    }
+
+    public void testCompressionPolicy() throws Exception {
+        CompressionPolicy policy = CompressionPolicy.createDefault();
+        policy.addFirst(Arrays.asList(new CompressionRule[]{
+                new CompressionRule(Collections.singleton("**/*.txt"), false, Deflater.BEST_COMPRESSION)}));
+        assertEquals(CompressionPolicy.STORED, policy.getLevel("images/logo.png"));
+        assertEquals(Deflater.BEST_COMPRESSION, policy.getLevel("docs/readme.txt"));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, policy.getLevel("org/Foo.class"));
+        assertEquals(CompressionPolicy.STORED, CompressionPolicy.createFast().getLevel("org/Foo.class"));
+
+        byte[] data = "Hello World, Hello World, Hello World".getBytes("UTF-8");
+        File jar = new File(base, "testCompressionPolicy.jar");
+        UberJarWriter writer = new UberJarWriter(jar);
+        try {
+            writer.putEntry("stored.txt", new ByteArrayInputStream(data), CompressionPolicy.STORED);
+            writer.putEntry("best.txt", new ByteArrayInputStream(data), Deflater.BEST_COMPRESSION);
+            writer.putEntry("empty.txt", new ByteArrayInputStream(new byte[0]), CompressionPolicy.STORED);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ZipFile actual = new ZipFile(jar);
+        try {
+            ZipEntry stored = actual.getEntry("stored.txt");
+            assertEquals(ZipEntry.STORED, stored.getMethod());
+            assertEquals(data.length, stored.getCompressedSize());
+            assertEquals(ZipEntry.DEFLATED, actual.getEntry("best.txt").getMethod());
+            assertTrue(IOUtil.contentEquals(new ByteArrayInputStream(data), actual.getInputStream(stored)));
+        } finally {
+            actual.close();
+        }
+
+        // Stored entries must have a valid local header since they can't use a data descriptor.
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(jar));
+        try {
+            ZipEntry entry = zis.getNextEntry();
+            assertEquals("stored.txt", entry.getName());
+            assertTrue(IOUtil.contentEquals(new ByteArrayInputStream(data), zis));
+            assertEquals("best.txt", zis.getNextEntry().getName());
+            assertEquals("empty.txt", zis.getNextEntry().getName());
+            assertNull(zis.getNextEntry());
+        } finally {
+            zis.close();
+        }
+    }
+
+    public void testConcurrentDeflateMatchesSerial() throws Exception {
+        // Use plain files so that every entry has to be deflated.
+        File dir = new File(base, "testConcurrentDeflate");
+        ArrayList<String> names = new ArrayList<String>();
+        JarFile source = new JarFile(sourceJar);
+        try {
+            for (Enumeration<JarEntry> i = source.entries(); i.hasMoreElements();) {
+                JarEntry entry = i.nextElement();
+                if (!entry.isDirectory()) {
+                    DefaultUberizer.writeFile(dir, entry.getName(), source.getInputStream(entry));
+                    names.add(entry.getName());
+                }
+            }
+        } finally {
+            source.close();
+        }
+        byte[] large = new byte[(int) UberJarWriter.BUFFERED_ENTRY_LIMIT * 2];
+        new Random(42).nextBytes(large);
+        DefaultUberizer.writeFile(dir, "large.bin", new ByteArrayInputStream(large));
+        names.add("large.bin");
+
+        File serialJar = new File(base, "testSerialDeflate.jar");
+        writeEntries(new UberJarWriter(serialJar), dir, names);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        File concurrentJar = new File(base, "testConcurrentDeflate.jar");
+        try {
+            writeEntries(new UberJarWriter(concurrentJar, executor, 16), dir, names);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        DefaultUberizerTest.assertSameEntries(serialJar, concurrentJar);
+        ZipFile expected = new ZipFile(serialJar);
+        ZipFile actual = new ZipFile(concurrentJar);
+        try {
+            for (String name : names) {
+                ZipEntry e = expected.getEntry(name);
+                ZipEntry a = actual.getEntry(name);
+                assertEquals(name, e.getCrc(), a.getCrc());
+                assertEquals(name, e.getCompressedSize(), a.getCompressedSize());
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static void writeEntries(UberJarWriter writer, File dir, List<String> names) throws Exception {
+        try {
+            for (String name : names) {
+                writer.putEntry(name, new File(dir, name));
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    public void testManyEntries() throws Exception {
+        File jar = new File(base, "testManyEntries.jar");
+        UberJarWriter writer = new UberJarWriter(jar);
+        try {
+            for (int i = 0; i < 70000; i++) {
+                writer.putDirectory("dir" + i + "/");
+            }
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        ZipFile actual = new ZipFile(jar);
+        try {
+            assertEquals(70000, actual.size());
+            assertNotNull(actual.getEntry("dir69999/"));
+        } finally {
+            actual.close();
+        }
+    }
+
+}
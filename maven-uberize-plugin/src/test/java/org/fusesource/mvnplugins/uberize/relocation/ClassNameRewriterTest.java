@@ -0,0 +1,42 @@
+package org.fusesource.mvnplugins.uberize.relocation;
+
+import java.util.HashMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link ClassNameRewriter}.
+ */
+public class ClassNameRewriterTest
+    extends TestCase
+{
+
+    public void testRewrite()
+        throws Exception
+    {
+        HashMap<String, String> relocations = new HashMap<String, String>();
+        relocations.put( "test.Foo", "hidden.test.Foo" );
+        relocations.put( "test.Foo$Inner", "hidden.test.Foo$Inner" );
+        relocations.put( "org.bar.Baz", "x.Baz" );
+        ClassNameRewriter rewriter = new ClassNameRewriter( relocations );
+
+        assertEquals( "hidden.test.Foo", rewriter.rewrite( "test.Foo" ) );
+        assertEquals( "class=hidden.test.Foo\n", rewriter.rewrite( "class=test.Foo\n" ) );
+        assertEquals( "com.myco.test.Foo test.Food", rewriter.rewrite( "com.myco.test.Foo test.Food" ) );
+        assertEquals( "<a>hidden.test.Foo$Inner</a>", rewriter.rewrite( "<a>test.Foo$Inner</a>" ) );
+        assertEquals( "hidden.test.Foo,x.Baz hidden.test.Foo", rewriter.rewrite( "test.Foo,org.bar.Baz test.Foo" ) );
+        assertEquals( "", rewriter.rewrite( "" ) );
+        assertEquals( "hidden.test.Fo", new ClassNameRewriter( relocations ).rewrite( "hidden.test.Fo" ) );
+
+        // Names which straddle the read buffer.
+        StringBuilder in = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for ( int i = 0; i < 5000; i++ )
+        {
+            in.append( "test.Foo org.bar.Baz;" );
+            expected.append( "hidden.test.Foo x.Baz;" );
+        }
+        assertEquals( expected.toString(), rewriter.rewrite( in.toString() ) );
+    }
+
+}
@@ -0,0 +1,139 @@
+package org.fusesource.mvnplugins.uberize.relocation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for {@link RelocationEngine}.
+ */
+public class RelocationEngineTest
+    extends TestCase
+{
+
+    static final String[] NAMES = { "org.foo.Class", "org/foo/Class", "org/foo/Class.class", "org.foo.bar.Class",
+        "org/foo/bar/Class", "org.foo.Excluded", "org/foo/Excluded.class", "org.fooz.Class", "org.Foo.Class",
+        "org.other.Class", "org/other/Class", "com.acme.Thing", "com/acme/Thing", "com.acme$Inner", "[Lorg/foo/Class;",
+        "[[Lorg.foo.Class;", "[Lcom/acme/Thing;", "[Lorg/other/Class;", "[I", "org", "", "Lorg/foo/Class;",
+        "hello world", "org/foo.Class", "net.x.y.Z" };
+
+    public void testMatchesRelocators()
+    {
+        List<Relocator> relocators = new ArrayList<Relocator>();
+        relocators.add( new SimpleRelocator( "org.foo", "private.foo", Arrays.asList( new String[] { "org.foo.Excluded" } ) ) );
+        relocators.add( new SimpleRelocator( "org", null, null ) );
+        relocators.add( new SimpleRelocator( "com.acme", "shaded.acme", null ) );
+        relocators.add( new Relocator()
+        {
+            public boolean canRelocatePath( String clazz )
+            {
+                return clazz.startsWith( "net/" );
+            }
+
+            public String relocatePath( String clazz )
+            {
+                return "x" + clazz;
+            }
+
+            public boolean canRelocateClass( String clazz )
+            {
+                return clazz.startsWith( "net." );
+            }
+
+            public String relocateClass( String clazz )
+            {
+                return "x" + clazz;
+            }
+        } );
+
+        RelocationEngine engine = new RelocationEngine( relocators, 4 );
+        for ( int pass = 0; pass < 2; pass++ )
+        {
+            for ( int i = 0; i < NAMES.length; i++ )
+            {
+                String name = NAMES[i];
+                assertEquals( name, mapPath( relocators, name ), engine.relocatePath( name ) );
+                assertEquals( name, mapClass( relocators, name ), engine.relocateClass( name ) );
+                assertEquals( name, mapValue( relocators, name ), engine.relocateValue( name ) );
+            }
+        }
+        String unchanged = new String( "com.other.Class" );
+        assertSame( unchanged, engine.relocateClass( unchanged ) );
+        assertEquals( "private.foo.Class", engine.relocateClass( "org.foo.Class" ) );
+        assertEquals( "hidden/org/other/Class", engine.relocatePath( "org/other/Class" ) );
+    }
+
+    private static String mapPath( List<Relocator> relocators, String name )
+    {
+        for ( Relocator r : relocators )
+        {
+            if ( r.canRelocatePath( name ) )
+            {
+                return r.relocatePath( name );
+            }
+        }
+        return name;
+    }
+
+    private static String mapClass( List<Relocator> relocators, String name )
+    {
+        for ( Relocator r : relocators )
+        {
+            if ( r.canRelocateClass( name ) )
+            {
+                return r.relocateClass( name );
+            }
+        }
+        return name;
+    }
+
+    private static String mapValue( List<Relocator> relocators, String name )
+    {
+        String value = name;
+        for ( Relocator r : relocators )
+        {
+            if ( r.canRelocateClass( name ) )
+            {
+                return r.relocateClass( name );
+            }
+            else if ( r.canRelocatePath( name ) )
+            {
+                return r.relocatePath( name );
+            }
+            if ( name.length() > 0 && name.charAt( 0 ) == '[' )
+            {
+                int count = 0;
+                while ( name.length() > 0 && name.charAt( 0 ) == '[' )
+                {
+                    name = name.substring( 1 );
+                    ++count;
+                }
+                if ( name.length() > 0 && name.charAt( 0 ) == 'L' && name.charAt( name.length() - 1 ) == ';' )
+                {
+                    name = name.substring( 1, name.length() - 1 );
+                    if ( r.canRelocatePath( name ) )
+                    {
+                        value = 'L' + r.relocatePath( name ) + ';';
+                    }
+                    else if ( r.canRelocateClass( name ) )
+                    {
+                        value = 'L' + r.relocateClass( name ) + ';';
+                    }
+                    else
+                    {
+                        continue;
+                    }
+                    while ( count-- > 0 )
+                    {
+                        value = '[' + value;
+                    }
+                    return value;
+                }
+            }
+        }
+        return value;
+    }
+
+}
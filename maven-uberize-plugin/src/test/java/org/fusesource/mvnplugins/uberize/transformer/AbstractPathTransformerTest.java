@@ -26,6 +26,7 @@ import java.io.File;
 import java.io.IOException;
 
 import junit.framework.TestCase;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 import org.fusesource.mvnplugins.uberize.Uberizer;
 
@@ -74,7 +75,7 @@ public class AbstractPathTransformerTest extends TestCase {
         TreeMap<String, UberEntry> tree = new TreeMap<String, UberEntry>();
         UberEntry enrty = new UberEntry(path).addSource(work);
         tree.put(path, enrty);
-        transformer.process(null, work, tree);
+        transformer.process(new DefaultUberizer(), work, tree);
         return transformer.matched;
     }
 
@@ -0,0 +1,230 @@
+package org.fusesource.mvnplugins.uberize.transformer;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.relocation.RelocationEngine;
+import org.fusesource.mvnplugins.uberize.relocation.Relocator;
+import org.fusesource.mvnplugins.uberize.relocation.SimpleRelocator;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.commons.EmptyVisitor;
+import org.objectweb.asm.commons.RemappingClassAdapter;
+
+/**
+ * Test for ConstantPoolRelocator.
+ */
+public class ConstantPoolRelocatorTest extends TestCase {
+
+    public void testMatchesRemappingClassAdapter() throws Exception {
+        List<Relocator> relocators = new ArrayList<Relocator>();
+        relocators.add(new SimpleRelocator("org.codehaus.plexus.util.cli", "x.cli", null));
+        relocators.add(new SimpleRelocator("org.codehaus.plexus.util", "shaded.util", Arrays.asList(new String[]{"org.codehaus.plexus.util.Base64"})));
+        ClassShader.RelocatorRemapper remapper = new ClassShader().new RelocatorRemapper(new RelocationEngine(relocators));
+        ConstantPoolRelocator relocator = new ConstantPoolRelocator(remapper);
+
+        int fast = 0;
+        List<byte[]> classes = readClasses(new File("src/test/jars/plexus-utils-1.4.1.jar"));
+        for (byte[] original : classes) {
+            byte[] relocated = relocator.relocate(original);
+            if (relocated == null) {
+                continue;
+            }
+            fast++;
+            assertMatchesAsm(remapper, original, relocated);
+        }
+        assertTrue(fast > classes.size() / 2);
+    }
+
+    public void testAnnotationsSignaturesAndInnerClasses() throws Exception {
+        List<Relocator> relocators = new ArrayList<Relocator>();
+        relocators.add(new SimpleRelocator("org.fusesource.mvnplugins.uberize.transformer.fixture", "shaded.fixture", null));
+        ClassShader.RelocatorRemapper remapper = new ClassShader().new RelocatorRemapper(new RelocationEngine(relocators));
+        ConstantPoolRelocator relocator = new ConstantPoolRelocator(remapper);
+
+        File dir = new File("target/test-classes/org/fusesource/mvnplugins/uberize/transformer/fixture");
+        File[] files = dir.listFiles();
+        assertNotNull(files);
+        // ASM maps class annotation and enum types as internal names, when those
+        // descriptors are also used elsewhere we have to leave the class to ASM.
+        List<String> asm = Arrays.asList(new String[]{"RelocationFixture.class", "RelocationFixture$Marker.class"});
+        int fast = 0;
+        for (File file : files) {
+            byte[] original = readFile(file);
+            byte[] relocated = relocator.relocate(original);
+            if (asm.contains(file.getName())) {
+                assertNull(file.getName(), relocated);
+                continue;
+            }
+            assertNotNull(file.getName(), relocated);
+            assertNotSame(file.getName(), original, relocated);
+            assertMatchesAsm(remapper, original, relocated);
+            fast++;
+        }
+        // the annotations, enum, member, local, anonymous, exception and annotated classes
+        assertEquals(9, fast);
+    }
+
+    public void testUnrelocatedClassIsUnchanged() throws Exception {
+        List<Relocator> relocators = new ArrayList<Relocator>();
+        relocators.add(new SimpleRelocator("com.acme", null, null));
+        ClassShader.RelocatorRemapper remapper = new ClassShader().new RelocatorRemapper(new RelocationEngine(relocators));
+        ConstantPoolRelocator relocator = new ConstantPoolRelocator(remapper);
+        for (byte[] original : readClasses(new File("src/test/jars/plexus-utils-1.4.1.jar"))) {
+            assertSame(original, relocator.relocate(original));
+        }
+    }
+
+    private static void assertMatchesAsm(ClassShader.RelocatorRemapper remapper, byte[] original, byte[] relocated) {
+        ClassReader cr = new ClassReader(original);
+        ClassWriter cw = new ClassWriter(cr, 0);
+        cr.accept(new RemappingClassAdapter(cw, remapper), ClassReader.EXPAND_FRAMES);
+        List<String> expected = describe(cw.toByteArray());
+        assertEquals(expected.get(0), expected, describe(relocated));
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        FileInputStream is = new FileInputStream(file);
+        try {
+            return IOUtil.toByteArray(is);
+        } finally {
+            IOUtil.close(is);
+        }
+    }
+
+    private static List<byte[]> readClasses(File file) throws Exception {
+        ArrayList<byte[]> rc = new ArrayList<byte[]>();
+        JarFile jar = new JarFile(file);
+        try {
+            for (Enumeration<JarEntry> i = jar.entries(); i.hasMoreElements();) {
+                JarEntry entry = i.nextElement();
+                if (entry.getName().endsWith(".class")) {
+                    rc.add(IOUtil.toByteArray(jar.getInputStream(entry)));
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return rc;
+    }
+
+    /**
+     * @return everything that refers to a class name, except the local variable
+     * indexes which ASM renumbers.
+     */
+    private static List<String> describe(byte[] clazz) {
+        final ArrayList<String> rc = new ArrayList<String>();
+        new ClassReader(clazz).accept(new EmptyVisitor() {
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                rc.add("class " + name + " " + signature + " " + superName + " " + Arrays.asList(interfaces));
+            }
+
+            public void visitOuterClass(String owner, String name, String desc) {
+                rc.add("outer " + owner + " " + name + " " + desc);
+            }
+
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                rc.add("inner " + name + " " + outerName + " " + innerName);
+            }
+
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                rc.add("annotation " + desc + " " + visible);
+                return this;
+            }
+
+            public AnnotationVisitor visitAnnotation(String name, String desc) {
+                rc.add("annotation " + name + " " + desc);
+                return this;
+            }
+
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String desc, boolean visible) {
+                rc.add("parameter annotation " + parameter + " " + desc + " " + visible);
+                return this;
+            }
+
+            public AnnotationVisitor visitAnnotationDefault() {
+                rc.add("default");
+                return this;
+            }
+
+            public void visit(String name, Object value) {
+                rc.add("value " + name + " " + value);
+            }
+
+            public void visitEnum(String name, String desc, String value) {
+                rc.add("enum " + name + " " + desc + " " + value);
+            }
+
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                rc.add("field " + name + " " + desc + " " + signature + " " + value);
+                return this;
+            }
+
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                rc.add("method " + name + " " + desc + " " + signature + " " + (exceptions == null ? null : Arrays.asList(exceptions)));
+                return this;
+            }
+
+            public void visitTypeInsn(int opcode, String type) {
+                rc.add("type " + opcode + " " + type);
+            }
+
+            public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                rc.add("field " + opcode + " " + owner + " " + name + " " + desc);
+            }
+
+            public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+                rc.add("invoke " + opcode + " " + owner + " " + name + " " + desc);
+            }
+
+            public void visitLdcInsn(Object cst) {
+                rc.add("ldc " + cst);
+            }
+
+            public void visitMultiANewArrayInsn(String desc, int dims) {
+                rc.add("multianewarray " + desc + " " + dims);
+            }
+
+            public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+                rc.add("catch " + type);
+            }
+
+            public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+                rc.add("local " + name + " " + desc + " " + signature);
+            }
+        }, 0);
+        return rc;
+    }
+
+}
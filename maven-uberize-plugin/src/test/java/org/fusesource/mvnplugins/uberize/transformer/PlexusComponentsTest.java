@@ -29,6 +29,7 @@ import junit.framework.TestCase;
 
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
+import org.fusesource.mvnplugins.uberize.DefaultUberizer;
 import org.fusesource.mvnplugins.uberize.UberEntry;
 
 /**
@@ -53,12 +54,12 @@ public class PlexusComponentsTest
         TreeMap<String, UberEntry> entries = new TreeMap<String, UberEntry>();
         final String path = PlexusComponents.COMPONENTS_XML_PATH;
         UberEntry uberEntry = new UberEntry(path);
-        uberEntry.getSources().add(resourceToFile("/components-1.xml"));
-        uberEntry.getSources().add(resourceToFile("/components-2.xml"));
+        uberEntry.getSourceList().add(resourceToFile("/components-1.xml"));
+        uberEntry.getSourceList().add(resourceToFile("/components-2.xml"));
         entries.put(path, uberEntry);
-        transformerPlexus.process(null, basedir, entries);
+        transformerPlexus.process(new DefaultUberizer(), basedir, entries);
         assertEquals( IOUtil.toString( getClass().getResourceAsStream( "/components-expected.xml" ) ),
-                      FileUtils.fileRead( entries.get(path).getSources().get(0)) );
+                      IOUtil.toString( DefaultUberizer.openStream( entries.get(path).getSourceList().get(0) ) ) );
     }
 
     private File resourceToFile(String resource) throws IOException {
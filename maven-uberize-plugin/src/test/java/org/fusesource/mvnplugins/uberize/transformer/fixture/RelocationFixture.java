@@ -0,0 +1,122 @@
+package org.fusesource.mvnplugins.uberize.transformer.fixture;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class file fixture for ConstantPoolRelocatorTest: it carries annotations,
+ * generic signatures and inner classes that all refer to its own package.
+ */
+@RelocationFixture.Marker(type = RelocationFixture.Inner.class, kind = RelocationFixture.Kind.OUTER,
+        nested = {@RelocationFixture.Tag(RelocationFixture.class), @RelocationFixture.Tag(List.class)})
+@RelocationFixture.Hidden
+public class RelocationFixture<T extends RelocationFixture.Inner> implements Comparable<RelocationFixture<T>> {
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Marker {
+        Class<?> type() default RelocationFixture.class;
+        Kind kind() default Kind.INNER;
+        Tag[] nested() default {};
+        Class<?>[] types() default {Inner.class, Kind.class};
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public @interface Tag {
+        Class<?> value();
+    }
+
+    @Retention(RetentionPolicy.CLASS)
+    public @interface Hidden {
+    }
+
+    public enum Kind {
+        INNER, OUTER
+    }
+
+    public static class Inner {
+        public Map<String, List<Inner>> children;
+    }
+
+    public class Member extends Inner {
+        public T outer() {
+            return value;
+        }
+    }
+
+    @Marker(kind = Kind.INNER)
+    private T value;
+    private List<? super Inner> sink = new ArrayList<Inner>();
+    private Inner[][] grid = new Inner[2][3];
+
+    @Marker
+    public <E extends Inner & Comparable<E>> List<E> sort(@Tag(Inner.class) List<E> list, @Hidden Kind kind) throws FixtureException {
+        if (kind == null) {
+            throw new FixtureException();
+        }
+        java.util.Collections.sort(list, new Comparator<E>() {
+            public int compare(E a, E b) {
+                return a.compareTo(b);
+            }
+        });
+        return list;
+    }
+
+    public Inner local() {
+        class Local extends Inner {
+            Member member = new Member();
+        }
+        Inner rc = new Local();
+        sink.add(rc);
+        try {
+            grid[0][0] = rc;
+        } catch (ArrayStoreException e) {
+            return null;
+        }
+        return rc;
+    }
+
+    public int compareTo(RelocationFixture<T> o) {
+        return value == o.value ? 0 : 1;
+    }
+
+    public static class FixtureException extends Exception {
+    }
+
+    /**
+     * Only member annotations, so none of its descriptors also show up as a
+     * class annotation type.
+     */
+    public static class Annotated {
+        @Marker(type = Inner.class, kind = Kind.OUTER)
+        public List<Inner> field;
+
+        @Tag(Inner.class)
+        public Map<String, ? extends Inner> method(@Tag(FixtureException.class) @Hidden Object inner) {
+            return null;
+        }
+    }
+
+}